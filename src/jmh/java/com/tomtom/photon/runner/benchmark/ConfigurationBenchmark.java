@@ -0,0 +1,70 @@
+package com.tomtom.photon.runner.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.tomtom.photon.runner.conf.ContinentRegistry;
+import com.tomtom.photon.runner.conf.ContinentSettings;
+
+/**
+ * Continent configuration looked up for every send: from the registry, from the properties file of the
+ * continent, and parsing a line of the continents file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConfigurationBenchmark {
+
+    private File continentDir;
+    private ContinentRegistry registry;
+
+    @Setup
+    public void setUp() throws IOException {
+        continentDir = Fixtures.continentDir("EUR");
+        Fixtures.propertiesFile(continentDir);
+        File continentsFile = new File(continentDir.getParentFile(), "continents.cfg");
+        Files.write("EUR;" + Fixtures.VERSION + ";" + Fixtures.BRANCH_AND_VERSION + "\n", continentsFile, Charsets.UTF_8);
+        registry = ContinentRegistry.load(continentsFile, continentDir.getParentFile());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(continentDir);
+    }
+
+    @Benchmark
+    public Optional<ContinentSettings> registryLookup() throws IOException {
+        return registry.get("EUR");
+    }
+
+    @Benchmark
+    public Properties readPropertiesFile() throws IOException {
+        return ContinentRegistry.readProperties(new File(continentDir, ContinentRegistry.propertiesFileName("EUR")));
+    }
+
+    @Benchmark
+    public ContinentSettings buildContinentSettings() {
+        return ContinentSettings.build("EUR;" + Fixtures.VERSION + ";" + Fixtures.BRANCH_AND_VERSION);
+    }
+
+}
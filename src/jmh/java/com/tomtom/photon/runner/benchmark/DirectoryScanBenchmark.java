@@ -0,0 +1,107 @@
+package com.tomtom.photon.runner.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.StateJournal;
+
+/**
+ * Listing a continent and filtering it against the state journal, as done when a fetched or sent
+ * continent is handed downstream, with thousands of country files of which half are already sent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryScanBenchmark {
+
+    @Param({ "1000", "5000" })
+    public int files;
+
+    private File continentDir;
+    private StateJournal journal;
+
+    @Setup
+    public void setUp() throws IOException {
+        continentDir = Fixtures.continentDir("EUR");
+        Fixtures.propertiesFile(continentDir);
+        journal = StateJournal.open(continentDir.getParentFile());
+        // records block until the journal is synced, so they are done from many threads to be group committed
+        ExecutorService pool = Executors.newFixedThreadPool(64);
+        List<Future<Void>> records = Lists.newArrayList();
+        for (int i = 0; i < files; i++) {
+            final String country = Fixtures.countryName(i);
+            new File(continentDir, country + ".json").createNewFile();
+            if (i % 2 == 0) {
+                records.add(pool.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        journal.record(Dataset.key("EUR", country), DatasetState.SENT);
+                        return null;
+                    }
+                }));
+            }
+        }
+        try {
+            for (Future<Void> record : records) {
+                record.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        Fixtures.delete(continentDir);
+    }
+
+    @Benchmark
+    public List<File> list() {
+        return Dataset.listCountryFiles(continentDir);
+    }
+
+    @Benchmark
+    public int listNotSent() {
+        int notSent = 0;
+        for (File file : Dataset.listCountryFiles(continentDir)) {
+            Dataset dataset = Dataset.builder().file(file).size(file.length()).build();
+            if (!journal.reached(dataset, DatasetState.SENT)) {
+                notSent++;
+            }
+        }
+        return notSent;
+    }
+
+}
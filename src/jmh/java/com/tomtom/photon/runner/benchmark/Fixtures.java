@@ -0,0 +1,102 @@
+package com.tomtom.photon.runner.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.conf.ContinentRegistry;
+
+/**
+ * Synthetic fetched continents for the benchmarks, shaped like ZoneMaker output: one json per country with a
+ * version per zone, and the continent properties file.
+ */
+final class Fixtures {
+
+    static final String VERSION = "13.10";
+    static final String BRANCH_AND_VERSION = "562a90ee-fe27-40ef-ad1a-01463bf45662:1000000";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return fresh continent directory under a new temporary directory
+     */
+    static File continentDir(String continent) {
+        File root = new File(System.getProperty("java.io.tmpdir"), "photon-runner-benchmark-" + System.nanoTime());
+        File dir = new File(root, continent);
+        dir.mkdirs();
+        return dir;
+    }
+
+    static void delete(File continentDir) {
+        IOUtil.rmDir(continentDir.getParentFile());
+    }
+
+    /**
+     * Writes zones of about 600 bytes of coordinates each until the file reaches the size.
+     */
+    static File countryFile(File continentDir, String country, long size) throws IOException {
+        File file = new File(continentDir, country + ".json");
+        Random random = new Random(size);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8));
+        try {
+            long written = write(writer, "{\n  \"name\" : \"" + country + "\",\n  \"version\" : \"" + VERSION
+                + "\",\n  \"zones\" : [\n");
+            for (int zone = 0; written < size; zone++) {
+                StringBuilder line = new StringBuilder("    { \"version\" : \"" + VERSION + "\", \"id\" : " + zone
+                    + ", \"geometry\" : [ ");
+                for (int i = 0; i < 48; i++) {
+                    line.append(String.format(Locale.ROOT, "%.5f", random.nextDouble() * 360 - 180)).append(", ");
+                }
+                line.append("0.0 ] },\n");
+                written += write(writer, line.toString());
+            }
+            write(writer, "    { } ]\n}\n");
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+        return file;
+    }
+
+    /**
+     * @return three letter country name, distinct for the first 26^3 indexes
+     */
+    static String countryName(int index) {
+        char[] name = new char[3];
+        for (int i = name.length - 1; i >= 0; i--) {
+            name[i] = (char) ('A' + index % 26);
+            index /= 26;
+        }
+        return new String(name);
+    }
+
+    static void propertiesFile(File continentDir) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("name", continentDir.getName());
+        props.setProperty("version", VERSION);
+        props.setProperty("branchAndVersion", BRANCH_AND_VERSION);
+        FileOutputStream os =
+            new FileOutputStream(new File(continentDir, ContinentRegistry.propertiesFileName(continentDir.getName())));
+        try {
+            props.store(os, null);
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    private static long write(Writer writer, String text) throws IOException {
+        writer.write(text);
+        return text.length();
+    }
+
+}
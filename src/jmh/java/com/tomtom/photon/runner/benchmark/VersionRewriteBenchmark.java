@@ -0,0 +1,58 @@
+package com.tomtom.photon.runner.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tomtom.photon.runner.io.VersionRewriter;
+
+/**
+ * Version rewrite done by the send stage for every country before it is sent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VersionRewriteBenchmark {
+
+    @Param({ "1048576", "67108864", "536870912" })
+    public long size;
+
+    private File continentDir;
+    private File source;
+    private File target;
+    private final VersionRewriter rewriter = new VersionRewriter();
+
+    @Setup
+    public void setUp() throws IOException {
+        continentDir = Fixtures.continentDir("EUR");
+        source = Fixtures.countryFile(continentDir, "AUT", size);
+        target = new File(continentDir, "AUT.rewritten.json");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(continentDir);
+    }
+
+    @Benchmark
+    public VersionRewriter.Result rewrite() throws IOException {
+        return rewriter.rewrite(source, target, "4.");
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.tomtom.photon.runner.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Optional;
+import com.tomtom.photon.runner.io.VersionRewriter;
+import com.tomtom.photon.runner.io.ZoneManifest;
+import com.tomtom.photon.runner.io.ZoneVersionScanner;
+
+/**
+ * The two ways the hadoop stage reads the zone version of a dataset it was not handed one for: the
+ * continent manifest, and scanning a sent file of an older run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZoneVersionBenchmark {
+
+    @Param({ "1048576", "67108864" })
+    public long size;
+
+    private File continentDir;
+    private File sent;
+
+    @Setup
+    public void setUp() throws IOException {
+        continentDir = Fixtures.continentDir("EUR");
+        File fetched = Fixtures.countryFile(continentDir, "AUT.fetched", size);
+        sent = new File(continentDir, "AUT.json");
+        VersionRewriter.Result result = new VersionRewriter().rewrite(fetched, sent, "4.");
+        fetched.delete();
+        for (int i = 0; i < 60; i++) {
+            ZoneManifest.record(continentDir, Fixtures.countryName(i),
+                new ZoneManifest.Entry(result.getZoneVersion(), result.getSize(), result.getChecksum()));
+        }
+        ZoneManifest.record(continentDir, "AUT",
+            new ZoneManifest.Entry(result.getZoneVersion(), result.getSize(), result.getChecksum()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(continentDir);
+    }
+
+    @Benchmark
+    public Optional<ZoneManifest.Entry> manifestLookup() throws IOException {
+        return ZoneManifest.lookup(continentDir, "AUT");
+    }
+
+    @Benchmark
+    public String scan() throws IOException {
+        return ZoneVersionScanner.scan(sent);
+    }
+
+}
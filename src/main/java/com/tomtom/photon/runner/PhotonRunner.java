@@ -1,25 +1,45 @@
 package com.tomtom.photon.runner;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.teleatlas.global.common.cli.AbstractArgs4jTool;
-import com.tomtom.photon.runner.conf.ContinentSettings;
+import com.tomtom.photon.runner.conf.ContinentRegistry;
+import com.tomtom.photon.runner.conf.HadoopConf;
 import com.tomtom.photon.runner.conf.ZoneMakerConf;
+import com.tomtom.photon.runner.conversion.ConversionExecutor;
+import com.tomtom.photon.runner.conversion.Submission;
+import com.tomtom.photon.runner.io.DirectoryMover;
+import com.tomtom.photon.runner.metrics.Metrics;
+import com.tomtom.photon.runner.pipeline.ConversionHistory;
+import com.tomtom.photon.runner.pipeline.ConversionReport;
+import com.tomtom.photon.runner.pipeline.Handoff;
+import com.tomtom.photon.runner.pipeline.Pipeline;
+import com.tomtom.photon.runner.pipeline.Scheduling;
+import com.tomtom.photon.runner.retry.AdaptiveLimiter;
+import com.tomtom.photon.runner.retry.CircuitBreaker;
+import com.tomtom.photon.runner.retry.RetryPolicy;
+import com.tomtom.photon.runner.state.ContinentClaims;
+import com.tomtom.photon.runner.state.DeltaIndex;
+import com.tomtom.photon.runner.state.Leases;
+import com.tomtom.photon.runner.state.StateJournal;
 import com.tomtom.photon.runner.threads.FetchRunner;
 import com.tomtom.photon.runner.threads.HadoopRunner;
+import com.tomtom.photon.runner.threads.MoveRunner;
 import com.tomtom.photon.runner.threads.SendRunner;
+import com.tomtom.photon.runner.zoning.LimitedZoningClient;
+import com.tomtom.photon.runner.zoning.ZoneMakerClient;
+import com.tomtom.photon.runner.zoning.ZoningClient;
 
 public class PhotonRunner extends AbstractArgs4jTool {
 
@@ -28,6 +48,21 @@ public class PhotonRunner extends AbstractArgs4jTool {
     public static final String FETCHED_DIR = "fetched";
     public static final String SENT_DIR = "sent";
     public static final String DONE_DIR = "done";
+    public static final String DEAD_LETTER_DIR = "deadletter";
+    public static final String HADOOP_LOGS_DIR = "logs" + File.separator + "hadoop";
+    public static final String HISTORY_FILE = "history.properties";
+    public static final String REPORT_FILE = "conversion-report.txt";
+    public static final String METRICS_FILE = "metrics.csv";
+    public static final String LEASES_DIR = "leases";
+
+    private static final int HANDOFF_CAPACITY = 1024;
+
+    private static final long MAX_SEND_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MAX_CONVERT_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final int ZONING_WINDOW = 10;
+    private static final double ZONING_FAILURE_RATE = 0.5;
+    private static final long ZONING_OPEN_SECONDS = 60;
+    private static final double ZONING_LATENCY_TOLERANCE = 2.0;
 
     @Option(name = "--continents", usage = "Sets continents config file", aliases = "-c", required = true)
     private File continentsFile;
@@ -56,50 +91,222 @@ public class PhotonRunner extends AbstractArgs4jTool {
     @Option(name = "--destinationDir", usage = "Sets destination dir for tif ascii", aliases = "-dd", required = true)
     private String destinationDir;
 
+    private int fetchWorkers = 1;
+
+    private int sendWorkers = 1;
+
+    private int hadoopWorkers = 3;
+
+    @Option(name = "--scheduling", usage = "Sets order of hadoop conversions: FIFO, LPT (longest first) or FAIR "
+        + "(round robin across continents)", aliases = "-s")
+    private Scheduling scheduling = Scheduling.FIFO;
+
+    @Option(name = "--adaptiveSends", usage = "Adapts the number of datasets sent to zoning at once, up to "
+        + "--sendWorkers, to the latency of the zoning service", aliases = "-as")
+    private boolean adaptiveSends = false;
+
+    @Option(name = "--sendAttempts", usage = "Sets number of attempts to send a dataset before it goes to deadletter",
+        aliases = "-sa")
+    private int sendAttempts = 8;
+
+    @Option(name = "--sendBackoff", usage = "Sets milliseconds to wait before the first send retry, doubled on every "
+        + "retry", aliases = "-sb")
+    private long sendBackoff = 1000;
+
+    @Option(name = "--sendBatch", usage = "Sets maximum number of countries of one continent sent to zoning at once",
+        aliases = "-sbs")
+    private int sendBatch = 1;
+
+    @Option(name = "--sendLinger", usage = "Sets milliseconds to wait for more countries before an incomplete batch is "
+        + "sent", aliases = "-sl")
+    private long sendLinger = 0;
+
+    @Option(name = "--convertAttempts", usage = "Sets number of attempts to convert a zone on hadoop before it is "
+        + "reported as failed", aliases = "-ca")
+    private int convertAttempts = 3;
+
+    @Option(name = "--convertBackoff", usage = "Sets milliseconds to wait before a failed conversion is resubmitted, "
+        + "doubled on every retry", aliases = "-cb")
+    private long convertBackoff = 60000;
+
+    @Option(name = "--submission", usage = "Sets how conversions are submitted to hadoop: FORK (hadoop client "
+        + "process per job) or IN_PROCESS (hadoop client api, needs hadoop on the classpath)", aliases = "-sub")
+    private Submission submission = Submission.FORK;
+
+    @Option(name = "--hadoopBatch", usage = "Sets maximum number of small zones of one continent converted by a "
+        + "single hadoop job", aliases = "-hb")
+    private int hadoopBatch = 1;
+
+    @Option(name = "--hadoopBatchBytes", usage = "Sets size in bytes up to which a zone counts as small for "
+        + "--hadoopBatch", aliases = "-hbb")
+    private long hadoopBatchBytes = 16 * 1024 * 1024;
+
+    @Option(name = "--compress", usage = "Keeps country jsons in " + FETCHED_DIR + " and " + SENT_DIR
+        + " gzip compressed", aliases = "-z")
+    private boolean compress = false;
+
+    private int moveThreads = 4;
+
+    @Option(name = "--metricsInterval", usage = "Sets seconds between metrics written to " + METRICS_FILE,
+        aliases = "-mi")
+    private long metricsInterval = 60;
+
+    @Option(name = "--deltaIndex", usage = "Sets file kept across runs with the countries converted so far; countries "
+        + "fetched unchanged since are not sent and converted again", aliases = "-di")
+    private File deltaIndex;
+
+    @Option(name = "--instance", usage = "Sets name of this runner instance; instances with distinct names may share "
+        + "--out, each claiming continents through leases in " + LEASES_DIR + " (remove it to run a finished --out "
+        + "again)", aliases = "-in")
+    private String instance;
+
+    @Option(name = "--leaseSeconds", usage = "Sets seconds after which continents claimed by an instance that "
+        + "stopped renewing its leases are claimed by others", aliases = "-ls")
+    private long leaseSeconds = 60;
+
+    @Option(name = "--maxContinents", usage = "Sets number of continents an instance works on at once",
+        aliases = "-mc")
+    private int maxContinents = 2;
+
+    @Option(name = "--fetchWorkers", usage = "Sets number of continents fetched at once", aliases = { "-fw",
+        "--fetchParallelism", "-fp" })
+    private void setFetchWorkers(int fetchWorkers) throws CmdLineException {
+        this.fetchWorkers = workers("--fetchWorkers", fetchWorkers);
+    }
+
+    @Option(name = "--sendWorkers", usage = "Sets number of datasets sent to zoning at once", aliases = "-sw")
+    private void setSendWorkers(int sendWorkers) throws CmdLineException {
+        this.sendWorkers = workers("--sendWorkers", sendWorkers);
+    }
+
+    @Option(name = "--hadoopWorkers", usage = "Sets number of hadoop conversions run at once", aliases = "-hw")
+    private void setHadoopWorkers(int hadoopWorkers) throws CmdLineException {
+        this.hadoopWorkers = workers("--hadoopWorkers", hadoopWorkers);
+    }
+
+    @Option(name = "--moveThreads", usage = "Sets number of files copied at once when the destination dir is on "
+        + "another file system than the hadoop output", aliases = "-mt")
+    private void setMoveThreads(int moveThreads) throws CmdLineException {
+        this.moveThreads = workers("--moveThreads", moveThreads);
+    }
+
+    /**
+     * Refuses worker counts no pool can be created with while the arguments are parsed, not once the run started.
+     */
+    private static int workers(String option, int workers) throws CmdLineException {
+        if (workers < 1) {
+            throw new CmdLineException(null, option + " must be at least 1, not " + workers);
+        }
+        return workers;
+    }
+
     public void run() {
         try {
             if (!continentsFile.exists()) {
                 throw new IllegalArgumentException("No such file: " + this.continentsFile.getAbsolutePath());
             }
-            final List<ContinentSettings> continents = readConfig(this.continentsFile);
             final ZoneMakerConf zoneMakerConf =
                 ZoneMakerConf.valueOf(this.out, this.countryConfig, this.accessPointWs, this.zoningService);
+            final ZoningClient client = createZoningClient(zoneMakerConf);
+            final HadoopConf hadoopConf = HadoopConf.valueOf(hadoop(), this.hadoopConfig, this.jobConfig,
+                this.photonConverterJar, this.destinationDir);
 
-            ExecutorService pool = Executors.newFixedThreadPool(5);
-
-            FetchRunner fetchTask = new FetchRunner(continents, zoneMakerConf);
-            SendRunner sendTask = new SendRunner(zoneMakerConf, fetchTask);
-            HadoopRunner hadoopTask =
-                new HadoopRunner(this.out, this.hadoopConfig, this.jobConfig, this.photonConverterJar, this.destinationDir,
-                    sendTask);
-            pool.submit(fetchTask);
-            pool.submit(sendTask);
-            for (int i = 0; i < 10; i++) {
-                pool.submit(hadoopTask);
+            new File(this.out).mkdirs();
+            final ContinentRegistry registry = ContinentRegistry.load(this.continentsFile, new File(this.out));
+            StateJournal journal = StateJournal.open(new File(this.out), instance());
+            Optional<ContinentClaims> claims = Optional.absent();
+            if (instance().isPresent()) {
+                claims = Optional.of(new ContinentClaims(new Leases(new File(this.out, LEASES_DIR), this.instance,
+                    this.leaseSeconds, TimeUnit.SECONDS), journal, new File(this.out), this.maxContinents));
+                journal.guard(claims.get());
             }
+            DirectoryMover mover = new DirectoryMover(this.moveThreads);
+            final Optional<DeltaIndex> delta = this.deltaIndex == null ? Optional.<DeltaIndex> absent()
+                : Optional.of(DeltaIndex.load(this.deltaIndex, new File(this.destinationDir), mover));
+            Metrics metrics = new Metrics();
+            try {
+                Handoff fetched = new Handoff(FETCHED_DIR, HANDOFF_CAPACITY, 1);
+                ConversionHistory history = ConversionHistory.load(new File(this.out, HISTORY_FILE));
+                Handoff sent =
+                    new Handoff(SENT_DIR, HANDOFF_CAPACITY, this.sendWorkers, this.scheduling.newPolicy(history));
+                metrics.stage("send").setBacklog(fetched);
+                Handoff converted = new Handoff("converted", HANDOFF_CAPACITY, this.hadoopWorkers);
+                metrics.stage("hadoop").setBacklog(sent);
+                metrics.stage("move").setBacklog(converted);
+                metrics.report(getMetricsFile(), this.metricsInterval, TimeUnit.SECONDS);
+
+                RetryPolicy sendRetry = new RetryPolicy(this.sendAttempts, this.sendBackoff, MAX_SEND_BACKOFF_MILLIS);
+                CircuitBreaker zoning =
+                    new CircuitBreaker("Zoning", ZONING_WINDOW, ZONING_FAILURE_RATE, ZONING_OPEN_SECONDS, TimeUnit.SECONDS);
+                ZoningClient sendClient = client;
+                if (this.adaptiveSends) {
+                    AdaptiveLimiter limiter = new AdaptiveLimiter("Zoning", 1, this.sendWorkers, ZONING_LATENCY_TOLERANCE);
+                    metrics.register("Limiter", limiter.getName(), limiter);
+                    sendClient = new LimitedZoningClient(client, limiter);
+                }
+                List<SendRunner> senders = Lists.newArrayList();
+                for (int i = 0; i < this.sendWorkers; i++) {
+                    String worker = instance().isPresent() ? this.instance + "-" + i : Integer.toString(i);
+                    senders.add(new SendRunner(zoneMakerConf, registry, sendClient, worker, journal, sendRetry, zoning,
+                        this.sendBatch, this.sendLinger, metrics, fetched, sent));
+                }
+                RetryPolicy convertRetry =
+                    new RetryPolicy(this.convertAttempts, this.convertBackoff, MAX_CONVERT_BACKOFF_MILLIS);
+                ConversionReport report = new ConversionReport();
+                ConversionExecutor executor = this.submission.newExecutor(hadoopConf);
+                List<HadoopRunner> converters = Lists.newArrayList();
+                for (int i = 0; i < this.hadoopWorkers; i++) {
+                    converters.add(new HadoopRunner(sent, executor, history, journal, new File(this.out, HADOOP_LOGS_DIR),
+                        convertRetry, this.hadoopBatch, this.hadoopBatchBytes, report, metrics, converted));
+                }
 
-            pool.shutdown();
-            pool.awaitTermination(365, TimeUnit.DAYS);
+                Pipeline pipeline = new Pipeline();
+                pipeline.stage("fetch", Collections.singletonList(new FetchRunner(registry, zoneMakerConf, client,
+                    this.fetchWorkers, journal, delta, this.compress, claims, metrics, fetched)));
+                pipeline.stage("send", senders);
+                pipeline.stage("hadoop", converters);
+                pipeline.stage("move", Collections.singletonList(new MoveRunner(converted,
+                    new File(HadoopRunner.WBM_OUT), new File(this.destinationDir), mover, journal, delta, report, metrics)));
+                try {
+                    pipeline.run();
+                } finally {
+                    executor.close();
+                    report(report);
+                }
+            } finally {
+                mover.close();
+                metrics.close();
+                if (claims.isPresent()) {
+                    claims.get().close();
+                }
+                journal.close();
+            }
         } catch (Exception e) {
             log(e);
         }
     }
 
-    private List<ContinentSettings> readConfig(File config) throws IOException {
-        List<ContinentSettings> result = Lists.newLinkedList();
-        log("Reading file: " + config.getAbsolutePath());
-        BufferedReader br = new BufferedReader(new FileReader(config));
-        try {
-            String line = br.readLine();
-            while (line != null && !line.isEmpty()) {
-                log("Line read: " + line);
-                result.add(ContinentSettings.build(line));
-                line = br.readLine();
-            }
-        } finally {
-            br.close();
+    /**
+     * @return client for the access point and the zoning service
+     */
+    protected ZoningClient createZoningClient(ZoneMakerConf zoneMakerConf) {
+        return new ZoneMakerClient(zoneMakerConf);
+    }
+
+    /**
+     * @return hadoop executable, with any arguments preceding the hadoop ones
+     */
+    protected List<String> hadoop() {
+        return HadoopConf.HADOOP;
+    }
+
+    private void report(ConversionReport report) throws IOException {
+        File file = new File(this.out, perInstance(REPORT_FILE));
+        report.write(file);
+        log("Conversions: " + report.summary() + ", see " + file.getAbsolutePath());
+        for (String failure : report.getFailures()) {
+            LOGGER.error("Failed " + failure);
         }
-        return result;
     }
 
     private void log(String log) {
@@ -110,6 +317,41 @@ public class PhotonRunner extends AbstractArgs4jTool {
         LOGGER.error(e.getMessage(), e);
     }
 
+    private Optional<String> instance() {
+        return Optional.fromNullable(this.instance);
+    }
+
+    /**
+     * @return name of a file of the run, made distinct per instance if several share --out
+     */
+    private String perInstance(String name) {
+        if (this.instance == null) {
+            return name;
+        }
+        int dot = name.lastIndexOf('.');
+        return name.substring(0, dot) + "-" + this.instance + name.substring(dot);
+    }
+
+    public File getMetricsFile() {
+        return new File(this.out, perInstance(METRICS_FILE));
+    }
+
+    public String getOut() {
+        return out;
+    }
+
+    public int getFetchWorkers() {
+        return fetchWorkers;
+    }
+
+    public int getSendWorkers() {
+        return sendWorkers;
+    }
+
+    public int getHadoopWorkers() {
+        return hadoopWorkers;
+    }
+
     @Override
     public String getName() {
         return "PhotonRunner";
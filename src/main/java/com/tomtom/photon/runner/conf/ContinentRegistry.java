@@ -0,0 +1,195 @@
+package com.tomtom.photon.runner.conf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.tomtom.photon.runner.PhotonRunner;
+
+/**
+ * Settings of all continents, shared by the stages.
+ *
+ * Continents of the continents file are read once; continents only found on disk, left by an earlier run,
+ * are read from their properties file on first use. Both are read again when the file changes.
+ */
+public class ContinentRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContinentRegistry.class);
+
+    private static class Entry {
+
+        private final ContinentSettings settings;
+        private final File source;
+        private final long modified;
+
+        Entry(ContinentSettings settings, File source, long modified) {
+            this.settings = settings;
+            this.source = source;
+            this.modified = modified;
+        }
+    }
+
+    private final File continentsFile;
+    private final File out;
+    private final ConcurrentMap<String, Entry> continents = Maps.newConcurrentMap();
+    private final ConcurrentMap<File, ContinentSettings> written = Maps.newConcurrentMap();
+    private volatile List<ContinentSettings> configured;
+    private volatile long configuredModified;
+
+    /**
+     * @param out exchange dir holding the fetched and sent continents
+     */
+    public static ContinentRegistry load(File continentsFile, File out) throws IOException {
+        ContinentRegistry registry = new ContinentRegistry(continentsFile, out);
+        registry.readContinentsFile();
+        return registry;
+    }
+
+    private ContinentRegistry(File continentsFile, File out) {
+        this.continentsFile = continentsFile;
+        this.out = out;
+    }
+
+    /**
+     * @return continents of the continents file, in file order
+     */
+    public List<ContinentSettings> getConfigured() throws IOException {
+        refreshContinentsFile();
+        return configured;
+    }
+
+    public Optional<ContinentSettings> get(String continent) throws IOException {
+        refreshContinentsFile();
+        Entry entry = continents.get(continent);
+        if (entry != null && (entry.source == continentsFile || entry.source.lastModified() == entry.modified)) {
+            return Optional.of(entry.settings);
+        }
+        for (String dir : new String[] { PhotonRunner.FETCHED_DIR, PhotonRunner.SENT_DIR }) {
+            File properties = new File(new File(new File(out, dir), continent), propertiesFileName(continent));
+            long modified = properties.lastModified();
+            if (modified != 0) {
+                ContinentSettings settings = ContinentSettings.build(readProperties(properties));
+                LOGGER.info("Read " + properties);
+                continents.put(continent, new Entry(settings, properties, modified));
+                return Optional.of(settings);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * @return settings the countries in sent/ were sent with, read from the properties file next to them; for
+     *         these countries they win over the continents file, which may have moved on since
+     */
+    public Optional<ContinentSettings> getSent(String continent) throws IOException {
+        File properties = new File(new File(new File(out, PhotonRunner.SENT_DIR), continent),
+            propertiesFileName(continent));
+        if (!properties.exists()) {
+            return Optional.absent();
+        }
+        return Optional.of(ContinentSettings.build(readProperties(properties)));
+    }
+
+    /**
+     * Writes the properties file of the continent into the directory, unless it has one already. Used for
+     * sent/, where the file describes the countries an earlier run sent and must not be replaced by newer
+     * settings while they wait there.
+     */
+    public synchronized void writePropertiesIfAbsent(File continentDir, ContinentSettings con) throws IOException {
+        if (!new File(continentDir, propertiesFileName(con.getName())).exists()) {
+            writeProperties(continentDir, con);
+        }
+    }
+
+    /**
+     * Writes the properties file of the continent into the directory, unless this run already did.
+     */
+    public void writeProperties(File continentDir, ContinentSettings con) throws IOException {
+        if (written.get(continentDir) == con) {
+            return;
+        }
+        synchronized (this) {
+            if (written.get(continentDir) == con) {
+                return;
+            }
+            File f = new File(continentDir, propertiesFileName(con.getName()));
+            OutputStream os = new FileOutputStream(f);
+            try {
+                con.toProperties().store(os, "Continent settings");
+            } finally {
+                os.close();
+            }
+            written.put(continentDir, con);
+        }
+    }
+
+    public static String propertiesFileName(String continent) {
+        return "$_$" + continent + ".properties";
+    }
+
+    public static Properties readProperties(File file) throws IOException {
+        Properties props = new Properties();
+        InputStream is = new FileInputStream(file);
+        try {
+            props.load(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return props;
+    }
+
+    private void refreshContinentsFile() throws IOException {
+        if (continentsFile.lastModified() != configuredModified) {
+            synchronized (this) {
+                if (continentsFile.lastModified() != configuredModified) {
+                    LOGGER.info("Continents file changed, reading it again");
+                    readContinentsFile();
+                }
+            }
+        }
+    }
+
+    private synchronized void readContinentsFile() throws IOException {
+        long modified = continentsFile.lastModified();
+        ImmutableList.Builder<ContinentSettings> result = ImmutableList.builder();
+        LOGGER.info("Reading file: " + continentsFile.getAbsolutePath());
+        BufferedReader br = new BufferedReader(new FileReader(continentsFile));
+        try {
+            String line = br.readLine();
+            while (line != null && !line.isEmpty()) {
+                LOGGER.info("Line read: " + line);
+                result.add(ContinentSettings.build(line));
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+        configured = result.build();
+        for (Map.Entry<String, Entry> entry : continents.entrySet()) {
+            if (entry.getValue().source == continentsFile) {
+                continents.remove(entry.getKey());
+            }
+        }
+        for (ContinentSettings con : configured) {
+            continents.put(con.getName(), new Entry(con, continentsFile, modified));
+        }
+        configuredModified = modified;
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.tomtom.photon.runner.conf;
 
+import java.util.Properties;
 import java.util.UUID;
 
 /**
@@ -29,6 +30,14 @@ public class ContinentSettings {
         return builder.build();
     }
     
+    /**
+     * @param props continent properties as written by {@link #toProperties()}
+     */
+    public static ContinentSettings build(Properties props) {
+        return ContinentSettings.builder().name(props.getProperty("name")).version(props.getProperty("version"))
+            .branch(props.getProperty("branch")).journalVersion(props.getProperty("journalVersion")).build();
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -91,4 +100,14 @@ public class ContinentSettings {
         return branch.toString() + ":" + journalVersion.toString();
     }
 
+    public Properties toProperties() {
+        Properties props = new Properties();
+        props.setProperty("name", name);
+        props.setProperty("version", version);
+        props.setProperty("branch", "" + branch);
+        props.setProperty("journalVersion", "" + journalVersion);
+        props.setProperty("branchAndVersion", getBranchAndVersion());
+        return props;
+    }
+
 }
@@ -0,0 +1,95 @@
+package com.tomtom.photon.runner.conf;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+
+public class HadoopConf {
+    public static final List<String> HADOOP = Lists.newArrayList("hadoop");
+
+    private final List<String> hadoop;
+    private String hadoopConfig;
+    private String jobConfig;
+    private String photonConverterJar;
+    private String destinationDir;
+
+    /**
+     * @param hadoop executable, with any arguments preceding the hadoop ones
+     */
+    public static HadoopConf valueOf(List<String> hadoop, String hadoopConfig, String jobConfig, String photonConverterJar,
+        String destinationDir) {
+        return new HadoopConf(hadoop, hadoopConfig, jobConfig, photonConverterJar, destinationDir);
+    }
+
+    private HadoopConf(List<String> hadoop, String hadoopConfig, String jobConfig, String photonConverterJar,
+        String destinationDir) {
+        this.hadoop = Lists.newArrayList(hadoop);
+        this.hadoopConfig = hadoopConfig;
+        this.jobConfig = jobConfig;
+        this.photonConverterJar = photonConverterJar;
+        this.destinationDir = destinationDir;
+    }
+
+    public List<String> createPhotonCommand(String branchAndVersion, String name, String version) {
+        return createPhotonCommand(branchAndVersion, Collections.singletonList(name), version);
+    }
+
+    /**
+     * @return command converting several zones of the same branch and zone version with a single job
+     */
+    public List<String> createPhotonCommand(String branchAndVersion, List<String> names, String version) {
+        final List<String> photon = Lists.newArrayList(hadoop);
+        photon.add("--config");
+        photon.add(this.hadoopConfig);
+        photon.add("jar");
+        photon.add(this.photonConverterJar);
+        photon.addAll(createPhotonArguments(branchAndVersion, names, version));
+        return photon;
+    }
+
+    /**
+     * @return arguments of photon-converter itself, without the hadoop client ones
+     */
+    public List<String> createPhotonArguments(String branchAndVersion, List<String> names, String version) {
+        final List<String> photon = Lists.newArrayList();
+        photon.add("--config");
+        photon.add(this.jobConfig);
+        photon.add("--model");
+        photon.add("wbm_rio");
+        photon.add("--type");
+        photon.add("COUNTRY");
+        photon.add("--zone");
+        photon.add(Joiner.on(',').join(names));
+        photon.add("--version");
+        photon.add(version);
+        photon.add("--format");
+        photon.add("TIFF_ASCII");
+        photon.add("--branchAndVersion");
+        photon.add(branchAndVersion);
+        return photon;
+    }
+
+    public List<String> getHadoop() {
+        return hadoop;
+    }
+
+    public String getHadoopConfig() {
+        return hadoopConfig;
+    }
+
+    public String getJobConfig() {
+        return jobConfig;
+    }
+
+    public String getPhotonConverterJar() {
+        return photonConverterJar;
+    }
+
+    public String getDestinationDir() {
+        return destinationDir;
+    }
+
+}
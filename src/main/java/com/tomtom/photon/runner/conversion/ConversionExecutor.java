@@ -0,0 +1,22 @@
+package com.tomtom.photon.runner.conversion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Runs photon-converter jobs on hadoop, leaving the tifascii output of every zone in output/wbm_rio/&lt;zone&gt;.
+ */
+public interface ConversionExecutor extends Closeable {
+
+    /**
+     * Starts converting the zones, all of the same branch and zone version, with a single job.
+     *
+     * @param log file the output of the job is appended to
+     * @return exit code of the job once it is done, -1 if it could not be run
+     */
+    ListenableFuture<Integer> submit(String branchAndVersion, List<String> zones, String version, File log);
+
+}
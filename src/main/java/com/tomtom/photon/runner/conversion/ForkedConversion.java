@@ -0,0 +1,98 @@
+package com.tomtom.photon.runner.conversion;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.tomtom.photon.runner.conf.HadoopConf;
+
+/**
+ * Runs every job with its own hadoop client process, as the hadoop command line would.
+ */
+public class ForkedConversion implements ConversionExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForkedConversion.class);
+
+    private final HadoopConf hadoopConf;
+    private final ListeningExecutorService pool = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("hadoop-client-%d").setDaemon(true).build()));
+
+    public ForkedConversion(HadoopConf hadoopConf) {
+        this.hadoopConf = hadoopConf;
+    }
+
+    @Override
+    public ListenableFuture<Integer> submit(String branchAndVersion, List<String> zones, String version,
+        final File log) {
+        final List<String> command = hadoopConf.createPhotonCommand(branchAndVersion, zones, version);
+        return pool.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws IOException, InterruptedException {
+                return runCommand(command, log);
+            }
+        });
+    }
+
+    /**
+     * Output of the hadoop client goes straight to the log of the zone, appended over attempts and runs,
+     * so no thread of ours has to drain it. An interrupted job, e.g. as the runner shuts down, kills its client.
+     */
+    private int runCommand(List<String> command, File log) throws IOException, InterruptedException {
+        LOGGER.info(command.toString());
+        LOGGER.info("Output in " + log);
+        log.getParentFile().mkdirs();
+        Writer header = new OutputStreamWriter(new FileOutputStream(log, true), Charsets.UTF_8);
+        try {
+            header.write("=== " + new Date() + " " + command + "\n");
+        } finally {
+            IOUtils.closeQuietly(header);
+        }
+        ProcessBuilder builder = new ProcessBuilder(command.toArray(new String[] {}));
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            return -1;
+        }
+        try {
+            process.getOutputStream().close();
+            int res = process.waitFor();
+            LOGGER.info("Output: " + res);
+            return res;
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted, killing hadoop client of " + log.getName());
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            process.destroy();
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+}
@@ -0,0 +1,473 @@
+package com.tomtom.photon.runner.conversion;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.RunJar;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.conf.HadoopConf;
+import com.tomtom.photon.runner.threads.HadoopRunner;
+
+/**
+ * Submits every job through the hadoop client api from within the runner, saving a client JVM per job. The
+ * hadoop configuration in --hadoopConfig is loaded once and copied for every job. photon-converter is loaded
+ * once from its job jar, unpacked the way the hadoop command line does.
+ *
+ * If its Main-Class provides a {@link JobFactory}, jobs are submitted without waiting for them; a single thread
+ * polls all running jobs, and the output of every zone of a successful job is copied to output/wbm_rio/&lt;zone&gt;
+ * before its future completes. Cancelling a future, or closing the executor, kills the job on the cluster.
+ * Otherwise the Main-Class must be a hadoop {@link Tool}, which leaves the output itself. A tool returns once its
+ * job is done, so it runs on a pool thread of its own, and cancelling only interrupts that thread.
+ *
+ * Either way a job exits with 0 only if the output of at least one of its zones is there; the hadoop stage
+ * converts the zones left without output on their own.
+ */
+public class InProcessConversion implements ConversionExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InProcessConversion.class);
+
+    private static final long POLL_MILLIS = 1000;
+
+    private static final FilenameFilter SITE_FILES = new FilenameFilter() {
+
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith("-site.xml");
+        }
+    };
+
+    private final HadoopConf hadoopConf;
+    private final Configuration configuration;
+    private final Optional<JobFactory> factory;
+    private final Optional<Class<? extends Tool>> tool;
+    private final ClassLoader loader;
+    private final Optional<File> unpacked;
+    private final File output;
+    private final Set<RunningJob> running = Sets.newConcurrentHashSet();
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("hadoop-jobs").setDaemon(true).build());
+    private final ListeningExecutorService pool = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("hadoop-job-%d").setDaemon(true).build()));
+
+    /**
+     * Loads the hadoop configuration and photon-converter named by the hadoop settings.
+     */
+    public static InProcessConversion create(HadoopConf hadoopConf) {
+        Configuration configuration = new Configuration();
+        File[] sites = new File(hadoopConf.getHadoopConfig()).listFiles(SITE_FILES);
+        if (sites != null) {
+            for (File site : sites) {
+                configuration.addResource(new Path(site.getAbsolutePath()));
+            }
+        }
+        LOGGER.info("Hadoop configuration loaded from " + hadoopConf.getHadoopConfig() + ", file system "
+            + configuration.get("fs.defaultFS"));
+
+        File jar = new File(hadoopConf.getPhotonConverterJar());
+        File output = new File(HadoopRunner.WBM_OUT);
+        File unpacked = Files.createTempDir();
+        try {
+            URLClassLoader loader = unpack(jar, unpacked);
+            Class<?> main = loadMainClass(jar, loader);
+            Optional<JobFactory> factory = loadFactory(main);
+            if (factory.isPresent()) {
+                return new InProcessConversion(hadoopConf, configuration, factory,
+                    Optional.<Class<? extends Tool>> absent(), loader, Optional.of(unpacked), output);
+            }
+            if (!Tool.class.isAssignableFrom(main)) {
+                throw new IllegalArgumentException(main.getName() + " is no hadoop Tool and has no createJob("
+                    + "Configuration, String[]), it can only be run with --submission " + Submission.FORK);
+            }
+            LOGGER.info(main.getName() + " has no createJob(Configuration, String[]), running it as a Tool");
+            return new InProcessConversion(hadoopConf, configuration, Optional.<JobFactory> absent(),
+                Optional.<Class<? extends Tool>> of(main.asSubclass(Tool.class)), loader, Optional.of(unpacked),
+                output);
+        } catch (IOException e) {
+            IOUtil.rmDir(unpacked);
+            throw new IllegalArgumentException("Cannot load photon-converter from " + jar, e);
+        } catch (RuntimeException e) {
+            IOUtil.rmDir(unpacked);
+            throw e;
+        }
+    }
+
+    /**
+     * @param configuration shared by all jobs, every job gets a copy
+     * @param factory creates the job of every submission
+     * @param output directory the output of every zone is copied to, output/wbm_rio/ of the hadoop stage
+     */
+    public InProcessConversion(HadoopConf hadoopConf, Configuration configuration, JobFactory factory,
+        File output) {
+        this(hadoopConf, configuration, Optional.of(factory), Optional.<Class<? extends Tool>> absent(),
+            factory.getClass().getClassLoader(), Optional.<File> absent(), output);
+    }
+
+    /**
+     * @param configuration shared by all jobs, every job gets a copy
+     * @param tool photon-converter, a new instance runs every job and leaves its output in the output directory
+     * @param output directory the output of every zone is expected in, output/wbm_rio/ of the hadoop stage
+     */
+    public InProcessConversion(HadoopConf hadoopConf, Configuration configuration, Class<? extends Tool> tool,
+        File output) {
+        this(hadoopConf, configuration, Optional.<JobFactory> absent(), Optional.<Class<? extends Tool>> of(tool),
+            tool.getClassLoader(), Optional.<File> absent(), output);
+    }
+
+    private InProcessConversion(HadoopConf hadoopConf, Configuration configuration, Optional<JobFactory> factory,
+        Optional<Class<? extends Tool>> tool, ClassLoader loader, Optional<File> unpacked, File output) {
+        this.hadoopConf = hadoopConf;
+        this.configuration = configuration;
+        this.factory = factory;
+        this.tool = tool;
+        this.loader = loader;
+        this.unpacked = unpacked;
+        this.output = output;
+    }
+
+    /**
+     * @return loader of the job jar, with the jar, its classes/ and its lib/*.jar on the class path
+     */
+    private static URLClassLoader unpack(File jar, File unpacked) throws IOException {
+        RunJar.unJar(jar, unpacked);
+        List<URL> classPath = Lists.newArrayList();
+        classPath.add(new File(unpacked.getAbsolutePath() + File.separator).toURI().toURL());
+        classPath.add(jar.getAbsoluteFile().toURI().toURL());
+        classPath.add(new File(unpacked, "classes" + File.separator).toURI().toURL());
+        File[] libs = new File(unpacked, "lib").listFiles();
+        if (libs != null) {
+            Arrays.sort(libs);
+            for (File lib : libs) {
+                classPath.add(lib.toURI().toURL());
+            }
+        }
+        return new URLClassLoader(classPath.toArray(new URL[classPath.size()]),
+            InProcessConversion.class.getClassLoader());
+    }
+
+    private static Class<?> loadMainClass(File jar, ClassLoader loader) throws IOException {
+        String mainClass;
+        JarFile jarFile = new JarFile(jar);
+        try {
+            Manifest manifest = jarFile.getManifest();
+            mainClass = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        } finally {
+            jarFile.close();
+        }
+        if (mainClass == null) {
+            throw new IllegalArgumentException("No Main-Class in " + jar);
+        }
+        try {
+            Class<?> main = Class.forName(mainClass, true, loader);
+            LOGGER.info("Loaded " + mainClass + " from " + jar);
+            return main;
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("No " + mainClass + " in " + jar, e);
+        }
+    }
+
+    /**
+     * @return factory calling the static createJob(Configuration, String[]) of the main class, absent if it has
+     * none
+     */
+    private static Optional<JobFactory> loadFactory(Class<?> main) {
+        final Method createJob;
+        try {
+            createJob = main.getMethod("createJob", Configuration.class, String[].class);
+        } catch (NoSuchMethodException e) {
+            return Optional.absent();
+        }
+        if (!Modifier.isStatic(createJob.getModifiers()) || !Job.class.isAssignableFrom(createJob.getReturnType())) {
+            return Optional.absent();
+        }
+        return Optional.<JobFactory> of(new JobFactory() {
+
+            @Override
+            public Job createJob(Configuration configuration, String[] arguments) throws Exception {
+                try {
+                    return (Job) createJob.invoke(null, configuration, arguments);
+                } catch (InvocationTargetException e) {
+                    Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Integer> submit(String branchAndVersion, List<String> zones, String version, File log) {
+        List<String> arguments = hadoopConf.createPhotonArguments(branchAndVersion, zones, version);
+        LOGGER.info("Submitting " + arguments);
+        log.getParentFile().mkdirs();
+        append(log, "=== " + new Date() + " in process " + arguments, null);
+        if (!factory.isPresent()) {
+            return runTool(arguments, zones, log);
+        }
+        Job job;
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(loader);
+        try {
+            job = factory.get().createJob(new Configuration(configuration),
+                arguments.toArray(new String[arguments.size()]));
+            job.submit();
+        } catch (InterruptedException e) {
+            current.interrupt();
+            return Futures.immediateFailedFuture(e);
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage(), e);
+            append(log, "=== " + new Date() + " could not be submitted", e);
+            return Futures.immediateFuture(-1);
+        } finally {
+            current.setContextClassLoader(previous);
+        }
+        LOGGER.info("Submitted " + job.getJobID() + " of " + zones);
+        RunningJob result = new RunningJob(job, zones, log);
+        running.add(result);
+        result.poll = poller.scheduleWithFixedDelay(result, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Runs the tool through ToolRunner on a pool thread, which cancelling the future interrupts.
+     */
+    private ListenableFuture<Integer> runTool(final List<String> arguments, final List<String> zones,
+        final File log) {
+        return pool.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws InterruptedException {
+                int res;
+                Thread current = Thread.currentThread();
+                ClassLoader previous = current.getContextClassLoader();
+                current.setContextClassLoader(loader);
+                try {
+                    res = ToolRunner.run(new Configuration(configuration), tool.get().newInstance(),
+                        arguments.toArray(new String[arguments.size()]));
+                    if (res == 0) {
+                        res = checkOutput(zones, log);
+                    }
+                } catch (InterruptedException e) {
+                    append(log, "=== " + new Date() + " interrupted", null);
+                    throw e;
+                } catch (Exception e) {
+                    LOGGER.error(e.getMessage(), e);
+                    append(log, "=== " + new Date() + " failed", e);
+                    res = -1;
+                } finally {
+                    current.setContextClassLoader(previous);
+                }
+                LOGGER.info("Output: " + res);
+                append(log, "=== " + new Date() + " exit code " + res, null);
+                return res;
+            }
+        });
+    }
+
+    /**
+     * Copies the output the job left in &lt;output path of the job&gt;/&lt;zone&gt; to the output directory,
+     * unless the job wrote it there itself. Each zone is copied to a hidden directory first and renamed into
+     * place, so the hadoop stage never takes a partial copy for the output.
+     */
+    private void copyOutput(Job job, List<String> zones) throws IOException {
+        Path jobOutput = FileOutputFormat.getOutputPath(job);
+        if (jobOutput == null) {
+            return;
+        }
+        FileSystem fs = jobOutput.getFileSystem(job.getConfiguration());
+        output.mkdirs();
+        for (String zone : zones) {
+            File target = new File(output, zone);
+            Path source = new Path(jobOutput, zone);
+            if (target.isDirectory() || !fs.exists(source)) {
+                continue;
+            }
+            File copying = new File(output, "." + zone + ".copying");
+            if (copying.exists()) {
+                IOUtil.rmDir(copying);
+            }
+            fs.copyToLocalFile(source, new Path(copying.getAbsolutePath()));
+            if (!copying.renameTo(target)) {
+                throw new IOException("Cannot rename " + copying + " to " + target);
+            }
+        }
+    }
+
+    /**
+     * @return 0 if the output of at least one of the zones is in the output directory, 1 otherwise
+     */
+    private int checkOutput(List<String> zones, File log) {
+        List<String> missing = Lists.newArrayList();
+        for (String zone : zones) {
+            if (!new File(output, zone).isDirectory()) {
+                missing.add(zone);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        LOGGER.warn("No output of " + missing + " in " + output);
+        append(log, "=== " + new Date() + " no output of " + missing + " in " + output, null);
+        return missing.size() < zones.size() ? 0 : 1;
+    }
+
+    /**
+     * Appends a line, and the stack trace of the failure if any, to the log of the zone. The job itself logs
+     * through the logging of the runner.
+     */
+    private static void append(File log, String line, Exception failure) {
+        try {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(log, true),
+                Charsets.UTF_8));
+            try {
+                writer.println(line);
+                if (failure != null) {
+                    failure.printStackTrace(writer);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not write to " + log, e);
+        }
+    }
+
+    /**
+     * Completes with 0 once the job succeeded and its output is copied, 1 once it failed or left no output, and
+     * -1 if its state cannot be read or its output cannot be copied.
+     */
+    private final class RunningJob extends AbstractFuture<Integer> implements Runnable {
+
+        private final Job job;
+        private final List<String> zones;
+        private final File log;
+        private volatile ScheduledFuture<?> poll;
+
+        RunningJob(Job job, List<String> zones, File log) {
+            this.job = job;
+            this.zones = zones;
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            int res;
+            try {
+                if (!job.isComplete()) {
+                    return;
+                }
+                stopPolling();
+                if (job.isSuccessful()) {
+                    copyOutput(job, zones);
+                    res = checkOutput(zones, log);
+                } else {
+                    res = 1;
+                }
+            } catch (IOException e) {
+                LOGGER.error("Lost track of the output of " + job.getJobID(), e);
+                append(log, "=== " + new Date() + " lost track of the output of " + job.getJobID(), e);
+                res = -1;
+            }
+            LOGGER.info("Output: " + res);
+            append(log, "=== " + new Date() + " exit code " + res, null);
+            running.remove(this);
+            set(res);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            kill();
+            return true;
+        }
+
+        /**
+         * Kills the job as the runner shuts down, which interrupts its waiting worker instead of counting as a
+         * failed attempt.
+         */
+        void shutDown() {
+            if (setException(new InterruptedException("Runner shut down"))) {
+                kill();
+            }
+        }
+
+        private void kill() {
+            running.remove(this);
+            stopPolling();
+            LOGGER.warn("Killing " + job.getJobID());
+            append(log, "=== " + new Date() + " killed", null);
+            try {
+                job.killJob();
+            } catch (IOException e) {
+                LOGGER.error("Could not kill " + job.getJobID(), e);
+            }
+        }
+
+        private void stopPolling() {
+            ScheduledFuture<?> scheduled = poll;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        pool.shutdownNow();
+        for (RunningJob job : running) {
+            job.shutDown();
+        }
+        if (unpacked.isPresent()) {
+            IOUtil.rmDir(unpacked.get());
+        }
+    }
+
+}
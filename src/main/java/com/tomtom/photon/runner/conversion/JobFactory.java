@@ -0,0 +1,19 @@
+package com.tomtom.photon.runner.conversion;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Creates the job converting zones, without submitting it. photon-converter may provide it as a
+ * public static Job createJob(Configuration, String[]) of the Main-Class of its job jar. The job leaves the
+ * output of every zone in &lt;output path of the job&gt;/&lt;zone&gt;.
+ */
+public interface JobFactory {
+
+    /**
+     * @param configuration copy of the hadoop configuration for this job only
+     * @param arguments photon-converter arguments, as for its command line
+     */
+    Job createJob(Configuration configuration, String[] arguments) throws Exception;
+
+}
@@ -0,0 +1,27 @@
+package com.tomtom.photon.runner.conversion;
+
+import com.tomtom.photon.runner.conf.HadoopConf;
+
+/**
+ * Ways of submitting conversions selectable from the command line.
+ */
+public enum Submission {
+
+    /** one hadoop client process per job */
+    FORK {
+        @Override
+        public ConversionExecutor newExecutor(HadoopConf hadoopConf) {
+            return new ForkedConversion(hadoopConf);
+        }
+    },
+    /** jobs submitted through the hadoop client api from the runner, needs hadoop on the classpath */
+    IN_PROCESS {
+        @Override
+        public ConversionExecutor newExecutor(HadoopConf hadoopConf) {
+            return InProcessConversion.create(hadoopConf);
+        }
+    };
+
+    public abstract ConversionExecutor newExecutor(HadoopConf hadoopConf);
+
+}
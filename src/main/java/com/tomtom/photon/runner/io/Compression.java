@@ -0,0 +1,84 @@
+package com.tomtom.photon.runner.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Country jsons may be kept gzip compressed in fetched/ and sent/ as &lt;country&gt;.json.gz. The staging
+ * directory read by the zoning service, continent level files, properties and manifests are never compressed.
+ */
+public final class Compression {
+
+    public static final String SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Compression() {
+    }
+
+    public static boolean isCompressed(File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * @return name of the file without the compression suffix
+     */
+    public static String uncompressedName(File file) {
+        String name = file.getName();
+        return isCompressed(file) ? name.substring(0, name.length() - SUFFIX.length()) : name;
+    }
+
+    /**
+     * @return buffered stream of the content of the file, decompressed if needed
+     */
+    public static InputStream open(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        if (!isCompressed(file)) {
+            return new BufferedInputStream(is, BUFFER_SIZE);
+        }
+        try {
+            return new BufferedInputStream(new GZIPInputStream(is, BUFFER_SIZE), BUFFER_SIZE);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(is);
+            throw e;
+        }
+    }
+
+    /**
+     * Compresses the source into the target and deletes the source. The target is written next to itself first
+     * and renamed into place, so it is either complete or missing.
+     *
+     * @return the target
+     */
+    public static File compress(File source, File target) throws IOException {
+        File tmp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+        InputStream is = new FileInputStream(source);
+        try {
+            OutputStream os = new GZIPOutputStream(new FileOutputStream(tmp), BUFFER_SIZE);
+            try {
+                IOUtils.copy(is, os);
+            } finally {
+                os.close();
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (!source.delete()) {
+            throw new IOException("Cannot delete " + source);
+        }
+        return target;
+    }
+
+}
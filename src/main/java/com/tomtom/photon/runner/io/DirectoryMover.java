@@ -0,0 +1,210 @@
+package com.tomtom.photon.runner.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.teleatlas.global.common.util.IOUtil;
+
+/**
+ * Moves directories, renaming them where possible. Across file systems the files are copied in parallel,
+ * each verified against a checksum of its source, into a hidden directory next to the target that is only
+ * renamed into place once complete. The source is removed after that. A target being replaced is renamed
+ * aside and removed only once the new one is in place, so a failed move leaves it as it was.
+ */
+public class DirectoryMover implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryMover.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ExecutorService pool;
+
+    /**
+     * @param threads number of files copied at once
+     */
+    public DirectoryMover(int threads) {
+        this.pool = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("copy-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Replaces the target, if any, with the source.
+     */
+    public void move(File source, File target) throws IOException, InterruptedException {
+        if (!source.isDirectory()) {
+            throw new IOException("No such directory: " + source);
+        }
+        target.getAbsoluteFile().getParentFile().mkdirs();
+        File tmp = sibling(target, "moving");
+        if (tmp.exists()) {
+            IOUtil.rmDir(tmp);
+        }
+        try {
+            Files.move(source.toPath(), tmp.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOGGER.info(target.getParent() + " is on another file system, copying " + source);
+            copy(source, target);
+            IOUtil.rmDir(source);
+            return;
+        }
+        try {
+            replace(tmp, target);
+        } catch (IOException e) {
+            Files.move(tmp.toPath(), source.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the source to the target, replacing the target, if any, only once the copy is verified.
+     */
+    public void copy(File source, File target) throws IOException, InterruptedException {
+        File tmp = sibling(target, "moving");
+        if (tmp.exists()) {
+            IOUtil.rmDir(tmp);
+        }
+        List<Future<Void>> copies = Lists.newArrayList();
+        try {
+            submit(source, tmp, copies);
+            for (Future<Void> copy : copies) {
+                try {
+                    copy.get();
+                } catch (ExecutionException e) {
+                    Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+            replace(tmp, target);
+        } finally {
+            for (Future<Void> copy : copies) {
+                copy.cancel(true);
+            }
+            if (tmp.exists()) {
+                IOUtil.rmDir(tmp);
+            }
+        }
+    }
+
+    /**
+     * Renames the complete directory to the target. An existing target is renamed aside first and put back if
+     * the rename fails, it is removed only once the new one is in place.
+     */
+    private static void replace(File complete, File target) throws IOException {
+        File old = sibling(target, "old");
+        if (old.exists()) {
+            IOUtil.rmDir(old);
+        }
+        boolean replacing = target.exists();
+        if (replacing) {
+            Files.move(target.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(complete.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (replacing) {
+                Files.move(old.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        if (replacing) {
+            IOUtil.rmDir(old);
+        }
+    }
+
+    private static File sibling(File target, String suffix) {
+        return new File(target.getAbsoluteFile().getParentFile(), "." + target.getName() + "." + suffix);
+    }
+
+    private void submit(File source, File target, List<Future<Void>> copies) throws IOException {
+        if (!target.mkdirs() && !target.isDirectory()) {
+            throw new IOException("Cannot create " + target);
+        }
+        File[] files = source.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + source);
+        }
+        for (final File file : files) {
+            final File copy = new File(target, file.getName());
+            if (file.isDirectory()) {
+                submit(file, copy, copies);
+            } else {
+                copies.add(pool.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        copyFile(file, copy);
+                        return null;
+                    }
+                }));
+            }
+        }
+    }
+
+    private static void copyFile(File source, File target) throws IOException {
+        FileInputStream is = new FileInputStream(source);
+        try {
+            FileOutputStream os = new FileOutputStream(target);
+            try {
+                FileChannel in = is.getChannel();
+                FileChannel out = os.getChannel();
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                out.force(false);
+            } finally {
+                IOUtils.closeQuietly(os);
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        if (checksum(source) != checksum(target)) {
+            throw new IOException("Copy of " + source + " to " + target + " does not match its source");
+        }
+    }
+
+    private static long checksum(File file) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            FileChannel in = is.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            while (in.read(buffer) != -1) {
+                crc.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return crc.getValue();
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+}
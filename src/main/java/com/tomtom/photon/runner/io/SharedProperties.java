@@ -0,0 +1,67 @@
+package com.tomtom.photon.runner.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Properties files updated by all runner instances sharing them, e.g. the delta index. An update reads the
+ * file again, adds its properties and renames the result into place while holding a lock on the sidecar
+ * &lt;file&gt;.lock, so no instance overwrites what another recorded meanwhile. Readers need no lock, they
+ * see either the file before or after an update.
+ */
+public final class SharedProperties {
+
+    private SharedProperties() {
+    }
+
+    /**
+     * @return properties of the file, none if it does not exist yet
+     */
+    public static Properties read(File file) throws IOException {
+        Properties props = new Properties();
+        if (file.exists()) {
+            InputStream is = new FileInputStream(file);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Adds the properties to the file, replacing those of the same keys. File locks are held per process, so
+     * updates from within this one take turns on the class.
+     */
+    public static synchronized void update(File file, Properties updates, String comments) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        RandomAccessFile lock = new RandomAccessFile(new File(dir, file.getName() + ".lock"), "rw");
+        try {
+            // released as the file is closed
+            lock.getChannel().lock();
+            Properties current = read(file);
+            current.putAll(updates);
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                current.store(out, comments);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.close();
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.tomtom.photon.runner.io;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Byte by byte matcher of the zone version token of a country json.
+ *
+ * Reports every complete <code>"version" : "</code> token and remembers the first zone version, i.e. the
+ * first value matching <code>"version" : "([0-9\.]+)",</code> - the same one HadoopRunner used to look up
+ * with a regular expression.
+ */
+class VersionMatcher {
+
+    static final byte[] TOKEN = "\"version\" : \"".getBytes(Charsets.US_ASCII);
+    private static final int[] FALLBACK = fallback(TOKEN);
+
+    private int matched = 0;
+    private StringBuilder value;
+    private boolean closed = false;
+    private String version;
+
+    /**
+     * @return true if the byte completed a version token
+     */
+    boolean feed(byte b) {
+        if (value != null) {
+            capture(b);
+        }
+        matched = advance(matched, b);
+        if (matched == TOKEN.length) {
+            matched = 0;
+            if (version == null) {
+                value = new StringBuilder();
+                closed = false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return first zone version seen so far, null if none
+     */
+    String version() {
+        return version;
+    }
+
+    private void capture(byte b) {
+        if (closed) {
+            if (b == ',') {
+                version = value.toString();
+            }
+            value = null;
+        } else if (b == '"' && value.length() > 0) {
+            closed = true;
+        } else if ((b >= '0' && b <= '9') || b == '.') {
+            value.append((char) b);
+        } else {
+            value = null;
+        }
+    }
+
+    /**
+     * Advances the number of token bytes matched so far by one input byte (Knuth-Morris-Pratt).
+     */
+    private static int advance(int matched, byte b) {
+        while (matched > 0 && TOKEN[matched] != b) {
+            matched = FALLBACK[matched - 1];
+        }
+        return TOKEN[matched] == b ? matched + 1 : matched;
+    }
+
+    private static int[] fallback(byte[] token) {
+        int[] fallback = new int[token.length];
+        int k = 0;
+        for (int i = 1; i < token.length; i++) {
+            while (k > 0 && token[i] != token[k]) {
+                k = fallback[k - 1];
+            }
+            if (token[i] == token[k]) {
+                k++;
+            }
+            fallback[i] = k;
+        }
+        return fallback;
+    }
+
+}
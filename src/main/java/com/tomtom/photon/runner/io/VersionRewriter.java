@@ -0,0 +1,215 @@
+package com.tomtom.photon.runner.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Copies a country json inserting a prefix into every zone version, i.e. <code>"version" : "13.10"</code>
+ * becomes <code>"version" : "4.13.10"</code>.
+ *
+ * The file is scanned once through a fixed size direct buffer, so memory use does not depend on the
+ * file size. The token is matched across buffer boundaries; the regions between matches are copied with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}. Compressed sources are
+ * decompressed through the same buffer and written from it.
+ *
+ * Instances keep their buffers and are not thread safe - use one per worker.
+ */
+public class VersionRewriter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    private final byte[] scratch;
+
+    public VersionRewriter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public VersionRewriter(int bufferSize) {
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.scratch = new byte[bufferSize];
+    }
+
+    public static class Result {
+        private final int rewritten;
+        private final String zoneVersion;
+        private final long size;
+        private final long checksum;
+
+        private Result(int rewritten, String zoneVersion, long size, long checksum) {
+            this.rewritten = rewritten;
+            this.zoneVersion = zoneVersion;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return number of versions rewritten
+         */
+        public int getRewritten() {
+            return rewritten;
+        }
+
+        /**
+         * @return first zone version of the rewritten file, including the prefix; null if there is none
+         */
+        public String getZoneVersion() {
+            return zoneVersion;
+        }
+
+        /**
+         * @return size of the rewritten file
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return CRC32 of the rewritten file
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+
+    public Result rewrite(File source, File target, String prefix) throws IOException {
+        final byte[] prefixBytes = prefix.getBytes(Charsets.US_ASCII);
+        final ByteBuffer prefixBuffer = ByteBuffer.wrap(prefixBytes);
+        if (Compression.isCompressed(source)) {
+            return rewriteCompressed(source, target, prefix, prefixBuffer);
+        }
+        FileInputStream is = new FileInputStream(source);
+        try {
+            FileOutputStream os = new FileOutputStream(target);
+            try {
+                FileChannel in = is.getChannel();
+                FileChannel out = os.getChannel();
+                VersionMatcher matcher = new VersionMatcher();
+                CRC32 crc = new CRC32();
+                int rewritten = 0;
+                long position = 0;
+                long copied = 0;
+                buffer.clear();
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    int checksummed = 0;
+                    while (buffer.hasRemaining()) {
+                        boolean matched = matcher.feed(buffer.get());
+                        position++;
+                        if (matched) {
+                            checksummed = checksum(crc, checksummed, buffer.position());
+                            crc.update(prefixBytes, 0, prefixBytes.length);
+                            transfer(in, copied, position, out);
+                            copied = position;
+                            prefixBuffer.rewind();
+                            while (prefixBuffer.hasRemaining()) {
+                                out.write(prefixBuffer);
+                            }
+                            rewritten++;
+                        }
+                    }
+                    checksum(crc, checksummed, buffer.limit());
+                    buffer.clear();
+                }
+                transfer(in, copied, position, out);
+                String zoneVersion = matcher.version() == null ? null : prefix + matcher.version();
+                return new Result(rewritten, zoneVersion, position + (long) rewritten * prefixBytes.length,
+                    crc.getValue());
+            } finally {
+                IOUtils.closeQuietly(os);
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    private Result rewriteCompressed(File source, File target, String prefix, ByteBuffer prefixBuffer)
+        throws IOException {
+        InputStream is = Compression.open(source);
+        try {
+            FileOutputStream os = new FileOutputStream(target);
+            try {
+                ReadableByteChannel in = Channels.newChannel(is);
+                FileChannel out = os.getChannel();
+                VersionMatcher matcher = new VersionMatcher();
+                CRC32 crc = new CRC32();
+                int rewritten = 0;
+                long size = 0;
+                buffer.clear();
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    int written = 0;
+                    while (buffer.hasRemaining()) {
+                        if (matcher.feed(buffer.get())) {
+                            written = write(crc, written, buffer.position(), out);
+                            crc.update(prefixBuffer.array(), 0, prefixBuffer.capacity());
+                            prefixBuffer.rewind();
+                            while (prefixBuffer.hasRemaining()) {
+                                out.write(prefixBuffer);
+                            }
+                            rewritten++;
+                        }
+                    }
+                    write(crc, written, buffer.limit(), out);
+                    size += buffer.limit();
+                    buffer.clear();
+                }
+                String zoneVersion = matcher.version() == null ? null : prefix + matcher.version();
+                return new Result(rewritten, zoneVersion, size + (long) rewritten * prefixBuffer.capacity(),
+                    crc.getValue());
+            } finally {
+                IOUtils.closeQuietly(os);
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Checksums and writes buffer bytes [from, to).
+     *
+     * @return to
+     */
+    private int write(CRC32 crc, int from, int to, FileChannel out) throws IOException {
+        checksum(crc, from, to);
+        ByteBuffer region = buffer.duplicate();
+        region.limit(to).position(from);
+        while (region.hasRemaining()) {
+            out.write(region);
+        }
+        return to;
+    }
+
+    /**
+     * Adds buffer bytes [from, to) to the checksum.
+     *
+     * @return to
+     */
+    private int checksum(CRC32 crc, int from, int to) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(to).position(from);
+        region.get(scratch, 0, to - from);
+        crc.update(scratch, 0, to - from);
+        return to;
+    }
+
+    private static void transfer(FileChannel in, long from, long to, FileChannel out) throws IOException {
+        long position = from;
+        while (position < to) {
+            position += in.transferTo(position, to - position, out);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.tomtom.photon.runner.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import com.google.common.base.Optional;
+
+/**
+ * Per continent manifest of sent countries (country -&gt; zone version, size, checksum, branch and version),
+ * stored as $_$&lt;continent&gt;.manifest next to the sent datasets. Lets the conversion look up the zone version
+ * without reading the dataset, and a resumed run the branch and version the country was sent with.
+ */
+public final class ZoneManifest {
+
+    private static final String VERSION = ".version";
+    private static final String SIZE = ".size";
+    private static final String CHECKSUM = ".checksum";
+    private static final String BRANCH_AND_VERSION = ".branchAndVersion";
+
+    private ZoneManifest() {
+    }
+
+    public static class Entry {
+        private final String zoneVersion;
+        private final long size;
+        private final long checksum;
+        private final String branchAndVersion;
+
+        public Entry(String zoneVersion, long size, long checksum) {
+            this(zoneVersion, size, checksum, null);
+        }
+
+        public Entry(String zoneVersion, long size, long checksum, String branchAndVersion) {
+            this.zoneVersion = zoneVersion;
+            this.size = size;
+            this.checksum = checksum;
+            this.branchAndVersion = branchAndVersion;
+        }
+
+        public String getZoneVersion() {
+            return zoneVersion;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * @return branch and version the country was sent with, null in manifests of older runs
+         */
+        public String getBranchAndVersion() {
+            return branchAndVersion;
+        }
+    }
+
+    /**
+     * Adds or replaces the entry of a country. The manifest is rewritten and renamed into place, so
+     * readers never see a partial file.
+     */
+    public static synchronized void record(File continentDir, String country, Entry entry) throws IOException {
+        Properties props = load(continentDir);
+        if (entry.getZoneVersion() != null) {
+            props.setProperty(country + VERSION, entry.getZoneVersion());
+        }
+        props.setProperty(country + SIZE, Long.toString(entry.getSize()));
+        props.setProperty(country + CHECKSUM, Long.toString(entry.getChecksum()));
+        if (entry.getBranchAndVersion() != null) {
+            props.setProperty(country + BRANCH_AND_VERSION, entry.getBranchAndVersion());
+        }
+
+        File manifest = manifestFile(continentDir);
+        File tmp = new File(continentDir, manifest.getName() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            props.store(out, "Sent countries");
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static synchronized Optional<Entry> lookup(File continentDir, String country) throws IOException {
+        Properties props = load(continentDir);
+        String size = props.getProperty(country + SIZE);
+        if (size == null) {
+            return Optional.absent();
+        }
+        return Optional.of(new Entry(props.getProperty(country + VERSION), Long.parseLong(size),
+            Long.parseLong(props.getProperty(country + CHECKSUM)), props.getProperty(country + BRANCH_AND_VERSION)));
+    }
+
+    private static Properties load(File continentDir) throws IOException {
+        Properties props = new Properties();
+        File manifest = manifestFile(continentDir);
+        if (manifest.exists()) {
+            InputStream is = new FileInputStream(manifest);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return props;
+    }
+
+    private static File manifestFile(File continentDir) {
+        return new File(continentDir, "$_$" + continentDir.getName() + ".manifest");
+    }
+
+}
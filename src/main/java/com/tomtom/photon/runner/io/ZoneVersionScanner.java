@@ -0,0 +1,61 @@
+package com.tomtom.photon.runner.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Looks up the zone version of a country json by scanning it through memory mapped windows. The version
+ * usually sits in the first window, so most lookups only touch a bounded prefix of the file. Compressed files
+ * are decompressed only up to the version.
+ */
+public final class ZoneVersionScanner {
+
+    public static final int WINDOW_SIZE = 1024 * 1024;
+
+    private ZoneVersionScanner() {
+    }
+
+    /**
+     * @return first zone version of the file, null if there is none
+     */
+    public static String scan(File file) throws IOException {
+        if (Compression.isCompressed(file)) {
+            return scanCompressed(file);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            VersionMatcher matcher = new VersionMatcher();
+            for (long position = 0; position < size && matcher.version() == null; position += WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(WINDOW_SIZE, size - position));
+                while (window.hasRemaining() && matcher.version() == null) {
+                    matcher.feed(window.get());
+                }
+            }
+            return matcher.version();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String scanCompressed(File file) throws IOException {
+        InputStream is = Compression.open(file);
+        try {
+            VersionMatcher matcher = new VersionMatcher();
+            int b;
+            while (matcher.version() == null && (b = is.read()) != -1) {
+                matcher.feed((byte) b);
+            }
+            return matcher.version();
+        } finally {
+            is.close();
+        }
+    }
+
+}
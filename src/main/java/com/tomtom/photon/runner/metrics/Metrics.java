@@ -0,0 +1,180 @@
+package com.tomtom.photon.runner.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Metrics of all stages of a run. Stages are registered as MBeans under
+ * com.tomtom.photon.runner:type=Stage,name=&lt;stage&gt;, the runner itself under
+ * com.tomtom.photon.runner:type=Runner, any other MBean of the run through {@link #register(String, String, Object)}.
+ *
+ * Once started, a snapshot of every stage is appended to a CSV file at a fixed interval and on close.
+ */
+public class Metrics implements MetricsMBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+    private static final String DOMAIN = "com.tomtom.photon.runner";
+    private static final String CSV_HEADER =
+        "time,stage,inFlight,backlog,completed,failed,busyMillis,itemsPerMinute,p50Millis,p95Millis,p99Millis\n";
+
+    private final Map<String, StageMetrics> stages = Maps.newLinkedHashMap();
+    private final List<ObjectName> registered = Lists.newArrayList();
+    private final long started = System.nanoTime();
+    private ScheduledExecutorService reporter;
+    private File csv;
+
+    public Metrics() {
+        register(this, DOMAIN + ":type=Runner");
+    }
+
+    /**
+     * @return metrics of the stage, created and registered on first use
+     */
+    public synchronized StageMetrics stage(String name) {
+        StageMetrics stage = stages.get(name);
+        if (stage == null) {
+            stage = new StageMetrics(name);
+            stages.put(name, stage);
+            register(stage, DOMAIN + ":type=Stage,name=" + name);
+        }
+        return stage;
+    }
+
+    /**
+     * Registers the MBean under com.tomtom.photon.runner:type=&lt;type&gt;,name=&lt;name&gt; until {@link #close()}.
+     */
+    public synchronized void register(String type, String name, Object mbean) {
+        register(mbean, DOMAIN + ":type=" + type + ",name=" + name);
+    }
+
+    /**
+     * Appends a snapshot to the CSV every interval until {@link #close()}.
+     */
+    public synchronized void report(File csv, long interval, TimeUnit unit) {
+        this.csv = csv;
+        reporter = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("metrics").setDaemon(true).build());
+        reporter.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                writeCsv();
+            }
+        }, interval, interval, unit);
+    }
+
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            writeCsv();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.warn("Could not unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started);
+    }
+
+    @Override
+    public synchronized long getInFlight() {
+        long inFlight = 0;
+        for (StageMetrics stage : stages.values()) {
+            inFlight += stage.getInFlight();
+        }
+        return inFlight;
+    }
+
+    @Override
+    public synchronized long getBacklog() {
+        long backlog = 0;
+        for (StageMetrics stage : stages.values()) {
+            backlog += stage.getBacklog();
+        }
+        return backlog;
+    }
+
+    @Override
+    public synchronized long getFailed() {
+        long failed = 0;
+        for (StageMetrics stage : stages.values()) {
+            failed += stage.getFailed();
+        }
+        return failed;
+    }
+
+    private synchronized void writeCsv() {
+        boolean header = !csv.exists();
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(csv, true), Charsets.UTF_8);
+            if (header) {
+                writer.write(CSV_HEADER);
+            }
+            long time = System.currentTimeMillis();
+            for (StageMetrics stage : stages.values()) {
+                stage.snapshot();
+                writer.write(time + "," + stage.getName() + "," + stage.getInFlight() + "," + stage.getBacklog() + ","
+                    + stage.getCompleted() + "," + stage.getFailed() + "," + stage.getBusyMillis() + ","
+                    + format(stage.getItemsPerMinute()) + ","
+                    + format(stage.getLatencyP50Millis()) + "," + format(stage.getLatencyP95Millis()) + ","
+                    + format(stage.getLatencyP99Millis()) + "\n");
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not write metrics to " + csv, e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private void register(Object mbean, String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+            registered.add(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Could not register " + name, e);
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.tomtom.photon.runner.metrics;
+
+/**
+ * JMX view of the runner as a whole.
+ */
+public interface MetricsMBean {
+
+    long getUptimeSeconds();
+
+    long getInFlight();
+
+    long getBacklog();
+
+    long getFailed();
+
+}
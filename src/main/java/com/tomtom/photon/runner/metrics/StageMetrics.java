@@ -0,0 +1,159 @@
+package com.tomtom.photon.runner.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tomtom.photon.runner.pipeline.Handoff;
+
+/**
+ * Counters and latencies of one stage, updated by all its workers.
+ *
+ * <pre>
+ * long start = metrics.start();
+ * ...
+ * metrics.done(start);
+ * </pre>
+ */
+public class StageMetrics implements StageMetricsMBean {
+
+    private final String name;
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong firstStart = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile Handoff backlog;
+    private long snapshotNanos;
+    private long snapshotCompleted;
+    private double itemsPerMinute;
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param backlog input of the stage, its size is reported as backlog
+     */
+    public void setBacklog(Handoff backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * @return start time to pass to {@link #done(long)} or {@link #failed(long)}
+     */
+    public long start() {
+        inFlight.incrementAndGet();
+        long now = System.nanoTime();
+        firstStart.compareAndSet(0, now);
+        return now;
+    }
+
+    public void done(long start) {
+        done(start, 1);
+    }
+
+    /**
+     * @param items number of datasets handled together, each is counted with the latency of the whole
+     */
+    public void done(long start, int items) {
+        long nanos = System.nanoTime() - start;
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        busyNanos.addAndGet(nanos);
+        inFlight.decrementAndGet();
+        completed.addAndGet(items);
+        for (int i = 0; i < items; i++) {
+            latency.record(micros);
+        }
+    }
+
+    public void failed(long start) {
+        busyNanos.addAndGet(System.nanoTime() - start);
+        inFlight.decrementAndGet();
+        failed.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getBacklog() {
+        Handoff handoff = backlog;
+        return handoff == null ? 0 : handoff.size();
+    }
+
+    @Override
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public long getBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+    }
+
+    /**
+     * Closes the current reporting interval, {@link #getItemsPerMinute()} then reports the rate within it.
+     */
+    public void snapshot() {
+        long now = System.nanoTime();
+        long done = completed.get();
+        synchronized (this) {
+            long since = snapshotNanos != 0 ? snapshotNanos : firstStart.get();
+            if (since != 0 && now > since) {
+                itemsPerMinute = rate(done - snapshotCompleted, now - since);
+            }
+            snapshotNanos = now;
+            snapshotCompleted = done;
+        }
+    }
+
+    /**
+     * @return datasets completed per minute within the last reporting interval, closed by {@link #snapshot()},
+     *         or since the first start while no interval was closed yet
+     */
+    @Override
+    public synchronized double getItemsPerMinute() {
+        if (snapshotNanos != 0) {
+            return itemsPerMinute;
+        }
+        long start = firstStart.get();
+        long elapsed = System.nanoTime() - start;
+        if (start == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return rate(completed.get(), elapsed);
+    }
+
+    private static double rate(long items, long nanos) {
+        return items * (double) TimeUnit.MINUTES.toNanos(1) / nanos;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return latency.percentile(0.50) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP95Millis() {
+        return latency.percentile(0.95) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return latency.percentile(0.99) / 1000.0;
+    }
+
+}
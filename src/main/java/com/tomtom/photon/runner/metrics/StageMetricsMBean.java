@@ -0,0 +1,34 @@
+package com.tomtom.photon.runner.metrics;
+
+/**
+ * JMX view of {@link StageMetrics}.
+ */
+public interface StageMetricsMBean {
+
+    String getName();
+
+    long getInFlight();
+
+    long getBacklog();
+
+    long getCompleted();
+
+    long getFailed();
+
+    /**
+     * @return time spent in calls of all workers together
+     */
+    long getBusyMillis();
+
+    /**
+     * @return rate within the last reporting interval
+     */
+    double getItemsPerMinute();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP95Millis();
+
+    double getLatencyP99Millis();
+
+}
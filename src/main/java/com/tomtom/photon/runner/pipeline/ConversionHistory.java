@@ -0,0 +1,75 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import com.tomtom.photon.runner.io.SharedProperties;
+
+/**
+ * Conversion durations of previous runs, used to estimate how long a dataset will take.
+ *
+ * Estimates only use what was loaded at start, so they do not change while datasets are queued.
+ * Durations recorded during the run are persisted for the next one.
+ */
+public class ConversionHistory {
+
+    private static final String MILLIS = ".millis";
+    private static final String SIZE = ".size";
+
+    private final File file;
+    private final Properties previous;
+    private final Properties recorded = new Properties();
+    private final double millisPerByte;
+
+    public static ConversionHistory load(File file) throws IOException {
+        return new ConversionHistory(file, SharedProperties.read(file));
+    }
+
+    private ConversionHistory(File file, Properties previous) {
+        this.file = file;
+        this.previous = previous;
+
+        long millis = 0;
+        long size = 0;
+        for (String key : previous.stringPropertyNames()) {
+            if (key.endsWith(MILLIS)) {
+                String base = key.substring(0, key.length() - MILLIS.length());
+                String sizeValue = previous.getProperty(base + SIZE);
+                if (sizeValue != null) {
+                    millis += Long.parseLong(previous.getProperty(key));
+                    size += Long.parseLong(sizeValue);
+                }
+            }
+        }
+        this.millisPerByte = size > 0 ? (double) millis / size : 0;
+    }
+
+    /**
+     * @return duration of the last conversion of the dataset, otherwise its size scaled by the average
+     *         conversion speed; without any history simply its size
+     */
+    public long estimate(Dataset dataset) {
+        String millis = previous.getProperty(key(dataset) + MILLIS);
+        if (millis != null) {
+            return Long.parseLong(millis);
+        }
+        long size = dataset.getSize();
+        return millisPerByte > 0 ? (long) (size * millisPerByte) : size;
+    }
+
+    /**
+     * Records the duration of a conversion. The history is updated under a lock, keeping what other runner
+     * instances sharing it recorded meanwhile.
+     */
+    public synchronized void record(Dataset dataset, long millis) throws IOException {
+        recorded.setProperty(key(dataset) + MILLIS, Long.toString(millis));
+        recorded.setProperty(key(dataset) + SIZE, Long.toString(dataset.getSize()));
+        SharedProperties.update(file, recorded, "Conversion durations");
+    }
+
+    private static String key(Dataset dataset) {
+        return dataset.getContinent() + "." + dataset.getCountry();
+    }
+
+}
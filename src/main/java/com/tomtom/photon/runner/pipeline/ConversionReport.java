@@ -0,0 +1,66 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Outcome of every conversion of this run, shared by the hadoop workers and the movers. Written at the end
+ * of the run, so failed zones can be re-run on their own.
+ */
+public class ConversionReport {
+
+    private final Map<String, String> converted = Maps.newLinkedHashMap();
+    private final List<String> failed = Lists.newArrayList();
+
+    public synchronized void converted(Dataset dataset, int attempts, long millis) {
+        converted.put(dataset.getKey(), dataset.getKey() + " attempts=" + attempts + " millis=" + millis);
+    }
+
+    /**
+     * Turns a conversion into a failure, because its output could not be moved to the destination.
+     */
+    public synchronized void notMoved(Dataset dataset, String reason) {
+        String conversion = converted.remove(dataset.getKey());
+        failed.add((conversion == null ? dataset.getKey() : conversion) + " " + reason);
+    }
+
+    public synchronized void failed(Dataset dataset, int attempts, String reason) {
+        failed.add(dataset.getKey() + " attempts=" + attempts + " " + reason);
+    }
+
+    public synchronized List<String> getFailures() {
+        return Lists.newArrayList(failed);
+    }
+
+    public synchronized String summary() {
+        return converted.size() + " converted, " + failed.size() + " failed";
+    }
+
+    public synchronized void write(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
+        try {
+            writer.write("# " + new Date() + ": " + summary() + "\n");
+            for (String line : failed) {
+                writer.write("FAILED " + line + "\n");
+            }
+            for (String line : converted.values()) {
+                writer.write("CONVERTED " + line + "\n");
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.tomtom.photon.runner.io.Compression;
+
+/**
+ * Descriptor of a single country dataset handed from one pipeline stage to the next.
+ */
+public class Dataset {
+
+    /**
+     * Country datasets only, compressed or not - files starting with $ are continent level files.
+     */
+    public static final FilenameFilter COUNTRY_FILES = new FilenameFilter() {
+
+        @Override
+        public boolean accept(File dir, String name) {
+            return (name.endsWith(".json") || name.endsWith(".json" + Compression.SUFFIX)) && !name.startsWith("$");
+        }
+    };
+
+    private final String continent;
+    private final String country;
+    private final File file;
+    private final String zoneVersion;
+    private final String branchAndVersion;
+    private final long size;
+    private final String contentHash;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return key of the country dataset in the state journal
+     */
+    public static String key(String continent, String country) {
+        return continent + "/" + country;
+    }
+
+    public static List<File> listCountryFiles(File directory) {
+        File[] files = directory.listFiles(COUNTRY_FILES);
+        if (files == null) {
+            return Lists.newArrayList();
+        }
+        return Arrays.asList(files);
+    }
+
+    private Dataset(final Builder builder) {
+        this.continent = builder.continent;
+        this.country = builder.country;
+        this.file = builder.file;
+        this.zoneVersion = builder.zoneVersion;
+        this.branchAndVersion = builder.branchAndVersion;
+        this.size = builder.size;
+        this.contentHash = builder.contentHash;
+    }
+
+    public static class Builder {
+        private String continent;
+        private String country;
+        private File file;
+        private String zoneVersion;
+        private String branchAndVersion;
+        private long size;
+        private String contentHash;
+
+        /**
+         * Sets the file and derives continent (parent directory) and country (first three letters) from it.
+         */
+        public Builder file(final File file) {
+            this.file = file;
+            this.continent = file.getParentFile().getName();
+            this.country = file.getName().substring(0, 3);
+            return this;
+        }
+
+        public Builder continent(final String continent) {
+            this.continent = continent;
+            return this;
+        }
+
+        public Builder country(final String country) {
+            this.country = country;
+            return this;
+        }
+
+        public Builder zoneVersion(final String zoneVersion) {
+            this.zoneVersion = zoneVersion;
+            return this;
+        }
+
+        public Builder branchAndVersion(final String branchAndVersion) {
+            this.branchAndVersion = branchAndVersion;
+            return this;
+        }
+
+        /**
+         * Sets the size of the file in bytes, as far as known to the producing stage.
+         */
+        public Builder size(final long size) {
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Sets the hash of the dataset as fetched, only known in incremental runs.
+         */
+        public Builder contentHash(final String contentHash) {
+            this.contentHash = contentHash;
+            return this;
+        }
+
+        public Dataset build() {
+            return new Dataset(this);
+        }
+    }
+
+    public Builder toBuilder() {
+        return builder().file(file).continent(continent).country(country).zoneVersion(zoneVersion)
+            .branchAndVersion(branchAndVersion).size(size).contentHash(contentHash);
+    }
+
+    public String getContinent() {
+        return continent;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getZoneVersion() {
+        return zoneVersion;
+    }
+
+    public String getBranchAndVersion() {
+        return branchAndVersion;
+    }
+
+    public String getKey() {
+        return key(continent, country);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.util.Map;
+import java.util.Queue;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Round robin across continents, so no continent waits until another one is converted completely.
+ * Within a continent datasets keep the order they were handed over.
+ */
+public class FairSharePolicy implements SchedulingPolicy {
+
+    private final Map<String, Queue<Dataset>> continents = Maps.newHashMap();
+    private final Queue<String> turns = Lists.newLinkedList();
+    private int size = 0;
+
+    @Override
+    public void add(Dataset dataset) {
+        Queue<Dataset> queue = continents.get(dataset.getContinent());
+        if (queue == null) {
+            queue = Lists.newLinkedList();
+            continents.put(dataset.getContinent(), queue);
+        }
+        if (queue.isEmpty()) {
+            turns.add(dataset.getContinent());
+        }
+        queue.add(dataset);
+        size++;
+    }
+
+    @Override
+    public Dataset poll() {
+        String continent = turns.poll();
+        if (continent == null) {
+            return null;
+        }
+        Queue<Dataset> queue = continents.get(continent);
+        Dataset dataset = queue.poll();
+        if (!queue.isEmpty()) {
+            turns.add(continent);
+        }
+        size--;
+        return dataset;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
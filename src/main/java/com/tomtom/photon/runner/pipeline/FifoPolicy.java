@@ -0,0 +1,29 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.util.Queue;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Datasets in the order they were handed over.
+ */
+public class FifoPolicy implements SchedulingPolicy {
+
+    private final Queue<Dataset> queue = Lists.newLinkedList();
+
+    @Override
+    public void add(Dataset dataset) {
+        queue.add(dataset);
+    }
+
+    @Override
+    public Dataset poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+}
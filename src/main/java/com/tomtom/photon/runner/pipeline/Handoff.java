@@ -0,0 +1,122 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+/**
+ * Bounded queue of datasets between two stages. The order datasets are taken in is decided by a
+ * {@link SchedulingPolicy}.
+ *
+ * Every producer calls {@link #producerDone()} once it stops emitting. After the last one did, consumers
+ * drain what is left and then see the end of the stream.
+ */
+public class Handoff {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Handoff.class);
+
+    private final String name;
+    private final int capacity;
+    private final SchedulingPolicy queue;
+    private int producers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    public Handoff(String name, int capacity, int producers) {
+        this(name, capacity, producers, new FifoPolicy());
+    }
+
+    public Handoff(String name, int capacity, int producers, SchedulingPolicy policy) {
+        this.name = name;
+        this.capacity = capacity;
+        this.producers = producers;
+        this.queue = policy;
+    }
+
+    public void put(Dataset dataset) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            queue.add(dataset);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return next dataset, absent once all producers are done and the queue is drained
+     */
+    public Optional<Dataset> take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() == 0 && producers > 0) {
+                notEmpty.await();
+            }
+            if (queue.size() == 0) {
+                return Optional.absent();
+            }
+            Dataset dataset = queue.poll();
+            notFull.signal();
+            return Optional.of(dataset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return next dataset, absent if none arrived within the timeout or the stream ended
+     */
+    public Optional<Dataset> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() == 0 && producers > 0 && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            if (queue.size() == 0) {
+                return Optional.absent();
+            }
+            Dataset dataset = queue.poll();
+            notFull.signal();
+            return Optional.of(dataset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void producerDone() {
+        lock.lock();
+        try {
+            if (--producers == 0) {
+                LOGGER.info("All producers of " + name + " done");
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.util.PriorityQueue;
+
+import com.google.common.primitives.Longs;
+
+/**
+ * Longest processing time first: the dataset expected to take longest is handed out first, so a big
+ * country picked up last does not stretch the whole run. Expected durations come from the
+ * {@link ConversionHistory}.
+ */
+public class LongestFirstPolicy implements SchedulingPolicy {
+
+    private final ConversionHistory history;
+    private final PriorityQueue<Estimated> queue = new PriorityQueue<Estimated>();
+    private long sequence = 0;
+
+    public LongestFirstPolicy(ConversionHistory history) {
+        this.history = history;
+    }
+
+    private static class Estimated implements Comparable<Estimated> {
+        private final Dataset dataset;
+        private final long estimate;
+        private final long sequence;
+
+        Estimated(Dataset dataset, long estimate, long sequence) {
+            this.dataset = dataset;
+            this.estimate = estimate;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Estimated o) {
+            int result = Longs.compare(o.estimate, estimate);
+            return result != 0 ? result : Longs.compare(sequence, o.sequence);
+        }
+    }
+
+    @Override
+    public void add(Dataset dataset) {
+        queue.add(new Estimated(dataset, history.estimate(dataset), sequence++));
+    }
+
+    @Override
+    public Dataset poll() {
+        Estimated next = queue.poll();
+        return next == null ? null : next.dataset;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+}
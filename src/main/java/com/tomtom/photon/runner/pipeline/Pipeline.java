@@ -0,0 +1,67 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the workers of all stages and waits until they are done. Every stage gets its own executor
+ * with one thread per worker, named after the stage. The first failing worker stops the whole
+ * pipeline.
+ */
+public class Pipeline {
+
+    private final Map<String, List<? extends Callable<Void>>> stages = Maps.newLinkedHashMap();
+
+    public Pipeline stage(String name, List<? extends Callable<Void>> workers) {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("No workers for stage " + name);
+        }
+        stages.put(name, workers);
+        return this;
+    }
+
+    public void run() throws Exception {
+        List<ExecutorService> executors = Lists.newArrayList();
+        try {
+            BlockingQueue<Future<Void>> done = new LinkedBlockingQueue<Future<Void>>();
+            int workers = 0;
+            for (Map.Entry<String, List<? extends Callable<Void>>> stage : stages.entrySet()) {
+                ExecutorService executor = Executors.newFixedThreadPool(stage.getValue().size(),
+                    new ThreadFactoryBuilder().setNameFormat(stage.getKey() + "-%d").build());
+                executors.add(executor);
+                CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor, done);
+                for (Callable<Void> worker : stage.getValue()) {
+                    completion.submit(worker);
+                    workers++;
+                }
+            }
+            for (int i = 0; i < workers; i++) {
+                try {
+                    done.take().get();
+                } catch (ExecutionException e) {
+                    Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.tomtom.photon.runner.pipeline;
+
+/**
+ * Scheduling policies selectable from the command line.
+ */
+public enum Scheduling {
+
+    /** order datasets were sent in */
+    FIFO {
+        @Override
+        public SchedulingPolicy newPolicy(ConversionHistory history) {
+            return new FifoPolicy();
+        }
+    },
+    /** longest processing time first */
+    LPT {
+        @Override
+        public SchedulingPolicy newPolicy(ConversionHistory history) {
+            return new LongestFirstPolicy(history);
+        }
+    },
+    /** round robin across continents */
+    FAIR {
+        @Override
+        public SchedulingPolicy newPolicy(ConversionHistory history) {
+            return new FairSharePolicy();
+        }
+    };
+
+    public abstract SchedulingPolicy newPolicy(ConversionHistory history);
+
+}
@@ -0,0 +1,18 @@
+package com.tomtom.photon.runner.pipeline;
+
+/**
+ * Decides which queued dataset is handed out next. Implementations are not thread safe, the
+ * {@link Handoff} guards them.
+ */
+public interface SchedulingPolicy {
+
+    void add(Dataset dataset);
+
+    /**
+     * @return next dataset, null if none is queued
+     */
+    Dataset poll();
+
+    int size();
+
+}
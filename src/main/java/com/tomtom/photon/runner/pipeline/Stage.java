@@ -0,0 +1,46 @@
+package com.tomtom.photon.runner.pipeline;
+
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+/**
+ * Worker of a pipeline stage. Datasets produced are emitted to the output handoff, which is told
+ * when this worker stops - also when it fails, so the next stage never waits forever.
+ */
+public abstract class Stage implements Callable<Void> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Optional<Handoff> output;
+
+    protected Stage(Handoff output) {
+        this.output = Optional.fromNullable(output);
+    }
+
+    @Override
+    public final Void call() throws Exception {
+        try {
+            process();
+            logger.info("Finished");
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            throw e;
+        } finally {
+            if (output.isPresent()) {
+                output.get().producerDone();
+            }
+        }
+        return null;
+    }
+
+    protected abstract void process() throws Exception;
+
+    protected void emit(Dataset dataset) throws InterruptedException {
+        output.get().put(dataset);
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.tomtom.photon.runner.retry;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Limit on the calls to a remote service in flight at once, shared by all callers and adapted to the
+ * latency of the service (additive increase, multiplicative decrease).
+ *
+ * Calls handling several items at once, e.g. a batch of countries, are judged by their latency per item, as
+ * a larger call takes longer without the service being any slower.
+ *
+ * The baseline is the lowest latency seen lately: it follows lower latencies at once and drifts up slowly,
+ * so a service that got slower for good becomes the new normal. Every call returning within the tolerance
+ * of the baseline while at least half the limit is in use raises the limit by 1/limit, i.e. by one per limit
+ * calls. A slower call cuts the limit by a tenth, a failed one halves it. Calls started before the last cut
+ * do not cut it again, so a burst of slow calls counts once.
+ */
+public class AdaptiveLimiter implements AdaptiveLimiterMBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveLimiter.class);
+
+    private static final double SLOW_DECREASE = 0.9;
+    private static final double FAILURE_DECREASE = 0.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final Ticker ticker;
+
+    private double limit;
+    private int inFlight = 0;
+    private double latencyNanos = 0;
+    private double baselineNanos = 0;
+    private long lastDecrease = Long.MIN_VALUE;
+
+    /**
+     * @param tolerance latency, as a multiple of the baseline, above which the service counts as overloaded
+     */
+    public AdaptiveLimiter(String name, int minLimit, int maxLimit, double tolerance) {
+        this(name, minLimit, maxLimit, tolerance, Ticker.systemTicker());
+    }
+
+    public AdaptiveLimiter(String name, int minLimit, int maxLimit, double tolerance, Ticker ticker) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + ".." + maxLimit);
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.ticker = ticker;
+        this.limit = minLimit;
+    }
+
+    /**
+     * Waits until a call is permitted. Every permitted call must be followed by {@link #onSuccess(long)} or
+     * {@link #onFailure(long)}.
+     *
+     * @return start of the call
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return ticker.read();
+    }
+
+    /**
+     * @param start as returned by {@link #acquire()}
+     */
+    public void onSuccess(long start) {
+        onSuccess(start, 1);
+    }
+
+    /**
+     * @param start as returned by {@link #acquire()}
+     * @param items number of items the call handled
+     */
+    public synchronized void onSuccess(long start, int items) {
+        long now = ticker.read();
+        long latency = (now - start) / Math.max(1, items);
+        boolean used = inFlight * 2 >= limit;
+        release();
+        latencyNanos = latencyNanos == 0 ? latency : latencyNanos + SMOOTHING * (latency - latencyNanos);
+        if (baselineNanos == 0 || latency < baselineNanos) {
+            baselineNanos = latency;
+        } else {
+            baselineNanos += BASELINE_DRIFT * (latency - baselineNanos);
+        }
+        if (latency > tolerance * baselineNanos) {
+            decrease(start, now, SLOW_DECREASE, "latency " + TimeUnit.NANOSECONDS.toMillis(latency) + " ms per item");
+        } else if (used && limit < maxLimit) {
+            int before = (int) limit;
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            if ((int) limit > before) {
+                LOGGER.info(name + " limit raised to " + (int) limit);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @param start as returned by {@link #acquire()}
+     */
+    public synchronized void onFailure(long start) {
+        release();
+        decrease(start, ticker.read(), FAILURE_DECREASE, "failure");
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized double getLatencyMillis() {
+        return latencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public synchronized double getBaselineLatencyMillis() {
+        return baselineNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    private void decrease(long start, long now, double ratio, String cause) {
+        if (start < lastDecrease) {
+            return;
+        }
+        lastDecrease = now;
+        int before = (int) limit;
+        limit = Math.max(minLimit, limit * ratio);
+        if ((int) limit < before) {
+            LOGGER.warn(name + " limit cut to " + (int) limit + " on " + cause);
+        }
+    }
+
+}
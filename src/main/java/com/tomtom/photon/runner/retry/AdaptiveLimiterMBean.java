@@ -0,0 +1,24 @@
+package com.tomtom.photon.runner.retry;
+
+/**
+ * JMX view of {@link AdaptiveLimiter}.
+ */
+public interface AdaptiveLimiterMBean {
+
+    String getName();
+
+    int getLimit();
+
+    int getInFlight();
+
+    /**
+     * @return smoothed latency of the calls
+     */
+    double getLatencyMillis();
+
+    /**
+     * @return lowest latency seen lately
+     */
+    double getBaselineLatencyMillis();
+
+}
@@ -0,0 +1,146 @@
+package com.tomtom.photon.runner.retry;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Circuit breaker shared by all callers of a remote service.
+ *
+ * While closed, the outcomes of the last calls are kept in a window. Once at least half of the window
+ * is filled and the failure rate reaches the threshold, the breaker opens and callers are held back
+ * for the open period. Then a single trial call is let through (half open): its success closes the
+ * breaker, its failure opens it again. A trial without an outcome after another open period, e.g. as its
+ * caller died, is given up and the next caller gets to make a trial.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final boolean[] window;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    private State state = State.CLOSED;
+    private int calls = 0;
+    private int failures = 0;
+    private int next = 0;
+    private long openedAt;
+    private boolean trialInFlight = false;
+    private long trialStartedAt;
+
+    public CircuitBreaker(String name, int windowSize, double failureRateThreshold, long openTime, TimeUnit unit) {
+        this(name, windowSize, failureRateThreshold, openTime, unit, Ticker.systemTicker());
+    }
+
+    public CircuitBreaker(String name, int windowSize, double failureRateThreshold, long openTime, TimeUnit unit,
+        Ticker ticker) {
+        this.name = name;
+        this.window = new boolean[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = unit.toNanos(openTime);
+        this.ticker = ticker;
+    }
+
+    /**
+     * Waits until a call is permitted. Every permitted call must be followed by {@link #onSuccess()} or
+     * {@link #onFailure()}.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (!tryAcquire()) {
+            // open or trial call in flight, either ends after the open period at the latest
+            long since = state == State.OPEN ? openedAt : trialStartedAt;
+            wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(openNanos - (ticker.read() - since))));
+        }
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && ticker.read() - openedAt >= openNanos) {
+            LOGGER.info(name + " circuit half open, sending a trial");
+            state = State.HALF_OPEN;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    if (ticker.read() - trialStartedAt < openNanos) {
+                        return false;
+                    }
+                    LOGGER.warn(name + " circuit trial got no outcome, sending another");
+                }
+                trialInFlight = true;
+                trialStartedAt = ticker.read();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            LOGGER.info(name + " circuit closed");
+            state = State.CLOSED;
+            trialInFlight = false;
+            reset();
+            notifyAll();
+        } else {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (calls >= (window.length + 1) / 2 && failures >= failureRateThreshold * calls) {
+                open();
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        LOGGER.warn(name + " circuit open for " + TimeUnit.NANOSECONDS.toSeconds(openNanos) + "s");
+        state = State.OPEN;
+        openedAt = ticker.read();
+        reset();
+        notifyAll();
+    }
+
+    private void reset() {
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.tomtom.photon.runner.retry;
+
+import java.util.Random;
+
+/**
+ * Limited number of attempts with exponential backoff and jitter: after the n-th failed attempt the
+ * caller waits a random time between half and all of initial * 2^(n-1), capped at max.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialMillis;
+    private final long maxMillis;
+    private final Random random = new Random();
+
+    public RetryPolicy(int maxAttempts, long initialMillis, long maxMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialMillis = initialMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @param attempt number of the failed attempt, starting with 1
+     */
+    public boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param attempt number of the failed attempt, starting with 1
+     */
+    public long delayMillis(int attempt) {
+        long delay = initialMillis << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxMillis) {
+            delay = maxMillis;
+        }
+        synchronized (random) {
+            return delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.tomtom.photon.runner.simulation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Stand-in for the hadoop executable running photon-converter:
+ *
+ * <pre>
+ * java -cp ... FakeHadoop [--sleepMillis N] [--failPercent N] &lt;hadoop arguments&gt;
+ * </pre>
+ *
+ * Takes its time, then either exits with 1 or writes output/wbm_rio/&lt;zone&gt; for every zone of a comma
+ * separated --zone like the real job.
+ */
+public final class FakeHadoop {
+
+    private FakeHadoop() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long sleepMillis = 0;
+        int failPercent = 0;
+        String zone = null;
+        for (int i = 0; i < args.length - 1; i++) {
+            if ("--sleepMillis".equals(args[i])) {
+                sleepMillis = Long.parseLong(args[++i]);
+            } else if ("--failPercent".equals(args[i])) {
+                failPercent = Integer.parseInt(args[++i]);
+            } else if ("--zone".equals(args[i])) {
+                zone = args[++i];
+            }
+        }
+        if (zone == null) {
+            System.err.println("No --zone given");
+            System.exit(2);
+        }
+        System.out.println("Converting " + zone);
+        Thread.sleep(sleepMillis);
+        if (new Random().nextInt(100) < failPercent) {
+            System.err.println("Simulated failure converting " + zone);
+            System.exit(1);
+        }
+        for (String name : zone.split(",")) {
+            File output = new File("output" + File.separator + "wbm_rio", name);
+            output.mkdirs();
+            Writer writer =
+                new OutputStreamWriter(new FileOutputStream(new File(output, name + ".asc")), Charsets.US_ASCII);
+            try {
+                writer.write("ncols 1\nnrows 1\nxllcorner 0\nyllcorner 0\ncellsize 1\n0\n");
+            } finally {
+                IOUtils.closeQuietly(writer);
+            }
+        }
+        System.out.println("Converted " + zone);
+    }
+
+}
@@ -0,0 +1,268 @@
+package com.tomtom.photon.runner.simulation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.teleatlas.global.common.cli.AbstractArgs4jTool;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.PhotonRunner;
+import com.tomtom.photon.runner.conf.ZoneMakerConf;
+import com.tomtom.photon.runner.zoning.ZoningClient;
+
+/**
+ * Runs the whole pipeline against {@link SimulatedZoning} and {@link FakeHadoop}, to compare worker counts and
+ * scheduling without the access point, the zoning service and the cluster. Arguments after -- are passed to
+ * the runner, e.g.
+ *
+ * <pre>
+ * PhotonSimulator --continents 4 --countries 50 --out sim -- --sendWorkers 4 --scheduling LPT
+ * </pre>
+ *
+ * Reports the makespan and, per stage, the time its workers were busy and idle. With --instances the runners
+ * are started as processes sharing --out, each logging to sim-&lt;i&gt;.log there, and --killAfter kills the
+ * first of them to see its continents taken over by the others once its leases expire.
+ */
+public class PhotonSimulator extends AbstractArgs4jTool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhotonSimulator.class);
+
+    private static final String NONE = "simulated";
+    private static final String CONTINENTS_FILE = "continents.cfg";
+
+    @Option(name = "--continents", usage = "Sets number of simulated continents", aliases = "-c")
+    private int continents = 4;
+
+    @Option(name = "--countries", usage = "Sets number of countries per continent", aliases = "-cs")
+    private int countries = 50;
+
+    @Option(name = "--countrySize", usage = "Sets size in bytes of each country json", aliases = "-size")
+    private long countrySize = 1024 * 1024;
+
+    @Option(name = "--fetchMillis", usage = "Sets time taken to fetch a continent", aliases = "-fm")
+    private long fetchMillis = 2000;
+
+    @Option(name = "--sendCallMillis", usage = "Sets time taken by every send to zoning", aliases = "-scm")
+    private long sendCallMillis = 500;
+
+    @Option(name = "--sendCountryMillis", usage = "Sets time added to a send per country sent", aliases = "-sm")
+    private long sendCountryMillis = 100;
+
+    @Option(name = "--sendFailPercent", usage = "Sets share of sends to zoning failing", aliases = "-sf")
+    private int sendFailPercent = 0;
+
+    @Option(name = "--sendCapacity", usage = "Sets number of sends zoning copes with at once, 0 for any", aliases = "-sc")
+    private int sendCapacity = 0;
+
+    @Option(name = "--hadoopMillis", usage = "Sets time taken by a conversion on hadoop", aliases = "-hm")
+    private long hadoopMillis = 3000;
+
+    @Option(name = "--hadoopFailPercent", usage = "Sets share of conversions failing", aliases = "-hf")
+    private int hadoopFailPercent = 0;
+
+    @Option(name = "--out", usage = "Sets simulation dir, removed before the run", aliases = "-out", required = true)
+    private File out;
+
+    @Option(name = "--instances", usage = "Sets number of runner processes sharing the simulation dir", aliases = "-n")
+    private int instances = 1;
+
+    @Option(name = "--killAfter", usage = "Sets seconds after which the first runner process is killed, 0 for never",
+        aliases = "-ka")
+    private long killAfter = 0;
+
+    @Option(name = "--forked", usage = "Runs one of the runner processes of a simulation", aliases = "-fk")
+    private boolean forked = false;
+
+    @Argument(usage = "runner arguments")
+    private List<String> runnerArgs = Lists.newArrayList();
+
+    /**
+     * Entry point of the runner processes started for --instances.
+     */
+    public static void main(String[] args) throws CmdLineException {
+        PhotonSimulator simulator = new PhotonSimulator();
+        new CmdLineParser(simulator).parseArgument(args);
+        simulator.execute();
+    }
+
+    @Override
+    public void execute() {
+        try {
+            if (!forked) {
+                IOUtil.rmDir(out);
+                out.mkdirs();
+                writeContinentsFile();
+            }
+            if (instances > 1 && !forked) {
+                long start = System.currentTimeMillis();
+                runInstances();
+                LOGGER.info(String.format("Makespan %.1f s for %d continents x %d countries on %d instances",
+                    (System.currentTimeMillis() - start) / 1000.0, continents, countries, instances));
+                return;
+            }
+            PhotonRunner runner = new PhotonRunner() {
+
+                @Override
+                protected ZoningClient createZoningClient(ZoneMakerConf zoneMakerConf) {
+                    return new SimulatedZoning(countries, countrySize, fetchMillis, sendCallMillis, sendCountryMillis,
+                        sendFailPercent, sendCapacity);
+                }
+
+                @Override
+                protected List<String> hadoop() {
+                    return Lists.newArrayList(new File(System.getProperty("java.home"), "bin" + File.separator + "java")
+                        .getPath(), "-cp", System.getProperty("java.class.path"), FakeHadoop.class.getName(),
+                        "--sleepMillis", Long.toString(hadoopMillis), "--failPercent", Integer.toString(hadoopFailPercent));
+                }
+            };
+            new CmdLineParser(runner).parseArgument(runnerArguments(new File(out, CONTINENTS_FILE)));
+
+            long start = System.currentTimeMillis();
+            runner.run();
+            report(runner, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } catch (CmdLineException e) {
+            throw Throwables.propagate(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Starts a runner process per instance and waits for all of them, killing the first one after --killAfter.
+     */
+    private void runInstances() throws IOException, InterruptedException {
+        List<Process> processes = Lists.newArrayList();
+        for (int i = 0; i < instances; i++) {
+            String instance = "sim-" + i;
+            List<String> command = Lists.newArrayList(new File(System.getProperty("java.home"), "bin"
+                + File.separator + "java").getPath(), "-cp", System.getProperty("java.class.path"),
+                PhotonSimulator.class.getName(), "--forked");
+            command.addAll(simulationArguments());
+            command.add("--");
+            command.addAll(runnerArgs);
+            command.addAll(Arrays.asList("--instance", instance));
+            processes.add(new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(new File(out, instance + ".log")).start());
+            LOGGER.info("Started " + instance);
+        }
+        try {
+            if (killAfter > 0) {
+                Thread.sleep(killAfter * 1000);
+                processes.get(0).destroy();
+                LOGGER.info("Killed sim-0");
+            }
+            for (int i = 0; i < instances; i++) {
+                LOGGER.info("sim-" + i + " exited with " + processes.get(i).waitFor());
+            }
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    private List<String> simulationArguments() {
+        return Lists.newArrayList("--continents", Integer.toString(continents), "--countries",
+            Integer.toString(countries), "--countrySize", Long.toString(countrySize), "--fetchMillis",
+            Long.toString(fetchMillis), "--sendCallMillis", Long.toString(sendCallMillis), "--sendCountryMillis",
+            Long.toString(sendCountryMillis), "--sendFailPercent", Integer.toString(sendFailPercent),
+            "--sendCapacity", Integer.toString(sendCapacity), "--hadoopMillis", Long.toString(hadoopMillis),
+            "--hadoopFailPercent", Integer.toString(hadoopFailPercent), "--out", out.getPath());
+    }
+
+    private File writeContinentsFile() throws IOException {
+        File file = new File(out, CONTINENTS_FILE);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
+        try {
+            for (int i = 0; i < continents; i++) {
+                writer.write(SimulatedZoning.countryName(i) + ";13.10;" + UUID.randomUUID() + ":1000000\n");
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+        return file;
+    }
+
+    private String[] runnerArguments(File continentsFile) {
+        List<String> args = Lists.newArrayList("--continents", continentsFile.getPath(), "--countryConfig", NONE,
+            "--accessPoint", NONE, "--zoningservice", NONE, "--out", out.getPath(), "--hadoopConfig", NONE,
+            "--photonConverterJar", NONE, "--jobConfig", NONE, "--destinationDir",
+            new File(out, "tifascii").getPath());
+        args.addAll(runnerArgs);
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Reads the final snapshot of every stage from the metrics of the run.
+     */
+    private void report(PhotonRunner runner, long makespan) throws IOException {
+        Map<String, String[]> stages = Maps.newLinkedHashMap();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(runner.getMetricsFile()), Charsets.UTF_8));
+        try {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(",");
+                stages.put(columns[1], columns);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+
+        LOGGER.info(String.format("Makespan %.1f s for %d continents x %d countries", makespan / 1000.0, continents,
+            countries));
+        for (String[] columns : stages.values()) {
+            String stage = columns[1];
+            int workers = workers(runner, stage);
+            long busy = Long.parseLong(columns[6]);
+            long available = workers * makespan;
+            LOGGER.info(String.format("%-8s %2d workers, %5s done, %4s failed, utilisation %5.1f%%, idle %.1f s",
+                stage, workers, columns[4], columns[5], available == 0 ? 0 : 100.0 * busy / available,
+                Math.max(0, available - busy) / 1000.0));
+        }
+    }
+
+    private static int workers(PhotonRunner runner, String stage) {
+        if ("fetch".equals(stage)) {
+            return runner.getFetchWorkers();
+        }
+        if ("send".equals(stage)) {
+            return runner.getSendWorkers();
+        }
+        if ("move".equals(stage)) {
+            return 1;
+        }
+        return runner.getHadoopWorkers();
+    }
+
+    @Override
+    public String getName() {
+        return "PhotonSimulator";
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.tomtom.photon.runner.simulation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.tomtom.photon.runner.conf.ContinentSettings;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.zoning.ZoningClient;
+
+/**
+ * Stand-in for the access point and the zoning service. Fetch writes synthetic country jsons one at a time,
+ * send only takes its time and fails now and then. With a capacity, sends slow down in proportion to how far
+ * the sends in flight exceed it, and time out beyond twice the capacity.
+ */
+public class SimulatedZoning implements ZoningClient {
+
+    private static final String ZONE = "    { \"version\" : \"%s\", \"id\" : %d, \"geometry\" : [ 4.89, 52.37, 4.90, 52.38 ] },\n";
+
+    private final int countries;
+    private final long countrySize;
+    private final long fetchMillis;
+    private final long sendCallMillis;
+    private final long sendCountryMillis;
+    private final int sendFailPercent;
+    private final int sendCapacity;
+    private final Random random = new Random();
+    private final AtomicInteger sending = new AtomicInteger();
+
+    /**
+     * @param countries number of countries fetched per continent
+     * @param countrySize size in bytes of each country json
+     * @param sendCallMillis time taken by every send, on top of sendCountryMillis per country sent
+     * @param sendFailPercent share of sends failing
+     * @param sendCapacity number of sends in flight the service copes with, 0 for any
+     */
+    public SimulatedZoning(int countries, long countrySize, long fetchMillis, long sendCallMillis, long sendCountryMillis,
+        int sendFailPercent, int sendCapacity) {
+        this.countries = countries;
+        this.countrySize = countrySize;
+        this.fetchMillis = fetchMillis;
+        this.sendCallMillis = sendCallMillis;
+        this.sendCountryMillis = sendCountryMillis;
+        this.sendFailPercent = sendFailPercent;
+        this.sendCapacity = sendCapacity;
+    }
+
+    @Override
+    public void fetch(ContinentSettings con, File continentFetchOut, FetchListener listener) {
+        try {
+            // country names are unique across continents, like the real ones, also when several runner
+            // processes fetch them
+            int first = countryIndex(con.getName()) * countries;
+            for (int i = first; i < first + countries; i++) {
+                sleep(fetchMillis / countries);
+                File country = new File(continentFetchOut, countryName(i) + ".json");
+                writeCountry(country, con.getVersion());
+                listener.fetched(country);
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void send(ContinentSettings continent, File staging) {
+        int load = sending.incrementAndGet();
+        try {
+            long millis = sendCallMillis + sendCountryMillis * Dataset.listCountryFiles(staging).size();
+            if (sendCapacity > 0 && load > sendCapacity) {
+                sleep(millis * load / sendCapacity);
+                if (load > 2 * sendCapacity) {
+                    throw new IllegalStateException("Simulated zoning timeout with " + load + " sends in flight");
+                }
+            } else {
+                sleep(millis);
+            }
+        } finally {
+            sending.decrementAndGet();
+        }
+        if (fails(sendFailPercent)) {
+            throw new IllegalStateException("Simulated zoning failure sending " + staging.list().length + " files of "
+                + continent.getName());
+        }
+    }
+
+    /**
+     * @return three letter country name, distinct for the first 26^3 indexes
+     */
+    static String countryName(int index) {
+        char[] name = new char[3];
+        for (int i = name.length - 1; i >= 0; i--) {
+            name[i] = (char) ('A' + index % 26);
+            index /= 26;
+        }
+        return new String(name);
+    }
+
+    /**
+     * @return index of a name given by {@link #countryName(int)}
+     */
+    static int countryIndex(String name) {
+        int index = 0;
+        for (int i = 0; i < name.length(); i++) {
+            index = index * 26 + name.charAt(i) - 'A';
+        }
+        return index;
+    }
+
+    private void writeCountry(File file, String version) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8));
+        try {
+            String header = "{\n  \"version\" : \"" + version + "\",\n  \"zones\" : [\n";
+            writer.write(header);
+            long written = header.length();
+            for (int zone = 0; written < countrySize; zone++) {
+                String line = String.format(ZONE, version, zone);
+                writer.write(line);
+                written += line.length();
+            }
+            writer.write("    { } ]\n}\n");
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private synchronized boolean fails(int percent) {
+        return random.nextInt(100) < percent;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+
+}
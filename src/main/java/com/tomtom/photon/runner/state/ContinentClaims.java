@@ -0,0 +1,179 @@
+package com.tomtom.photon.runner.state;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.tomtom.photon.runner.pipeline.Dataset;
+
+/**
+ * Continents a runner instance works on while other instances share --out. A continent is claimed through
+ * its lease before it is fetched, adopting the states its previous owner recorded, and released once every
+ * dataset of it handed downstream got to an end state. It is released as done only if all of them were moved
+ * or carried forward; a continent with failed or dead lettered datasets is released as not done, so that a
+ * later claim tries them again.
+ *
+ * As the guard of the journal it refuses states of continents not held, e.g. lost to another instance after
+ * heartbeats were missed, so that only one instance records them and the other fails instead.
+ */
+public class ContinentClaims implements StateJournal.Guard, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContinentClaims.class);
+
+    private static final Set<DatasetState> SUCCEEDED = EnumSet.of(DatasetState.MOVED, DatasetState.CARRIED);
+    private static final Set<DatasetState> GAVE_UP = EnumSet.of(DatasetState.DEAD_LETTER, DatasetState.FAILED);
+
+    private final Leases leases;
+    private final StateJournal journal;
+    private final File out;
+    private final int maxContinents;
+
+    /** keys of the datasets handed downstream and not at an end state yet, per continent claimed */
+    private final Map<String, Set<String>> outstanding = Maps.newHashMap();
+    private final Set<String> fetched = Sets.newHashSet();
+    /** keys of the datasets given up on, per continent claimed */
+    private final Map<String, Set<String>> gaveUp = Maps.newHashMap();
+
+    /**
+     * @param maxContinents number of continents worked on at once, leaving the others to other instances
+     */
+    public ContinentClaims(Leases leases, StateJournal journal, File out, int maxContinents) {
+        this.leases = leases;
+        this.journal = journal;
+        this.out = out;
+        this.maxContinents = maxContinents;
+    }
+
+    /**
+     * @return true if an instance finished the continent
+     */
+    public boolean isDone(String continent) throws IOException {
+        Optional<Leases.Lease> lease = leases.get(continent);
+        return lease.isPresent() && lease.get().isDone();
+    }
+
+    /**
+     * Claims the continent unless this instance works on enough continents already or another instance holds
+     * it. Continents taken over from another instance, or from a run without instances, get their states
+     * adopted from its journal.
+     */
+    public boolean tryClaim(String continent) throws IOException {
+        synchronized (this) {
+            if (outstanding.size() >= maxContinents) {
+                return false;
+            }
+        }
+        Optional<Leases.Lease> lease = leases.tryClaim(continent);
+        if (!lease.isPresent()) {
+            return false;
+        }
+        synchronized (this) {
+            outstanding.put(continent, Sets.<String> newHashSet());
+            gaveUp.put(continent, Sets.<String> newHashSet());
+        }
+        Optional<String> previous = lease.get().getPreviousOwner();
+        if (!previous.isPresent() || !previous.get().equals(leases.getOwner())) {
+            File from = StateJournal.file(out, previous);
+            int adopted = journal.adopt(from, continent);
+            if (adopted > 0) {
+                LOGGER.info("Adopted " + adopted + " states of " + continent + " from " + from);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called before a dataset of a claimed continent is handed downstream.
+     */
+    public synchronized void emitted(Dataset dataset) {
+        Set<String> keys = outstanding.get(dataset.getContinent());
+        if (keys != null) {
+            keys.add(dataset.getKey());
+        }
+    }
+
+    /**
+     * Called once a claimed continent is fetched and all its datasets are handed downstream.
+     */
+    public synchronized void fetched(String continent) {
+        fetched.add(continent);
+    }
+
+    /**
+     * Releases the continents whose datasets all got to an end state, as done unless some were given up on.
+     * Called between records, so that the last state of a continent is on disk before its lease says done.
+     */
+    public void releaseFinished() throws IOException {
+        for (Map.Entry<String, Integer> finished : finished().entrySet()) {
+            String continent = finished.getKey();
+            int failures = finished.getValue();
+            if (failures > 0) {
+                LOGGER.warn(failures + " datasets of " + continent + " failed, leaving it to be claimed again");
+            }
+            leases.release(continent, failures == 0);
+        }
+    }
+
+    @Override
+    public void recording(String key, DatasetState state) throws IOException {
+        int slash = key.indexOf('/');
+        String continent = slash < 0 ? key : key.substring(0, slash);
+        if (!leases.holds(continent)) {
+            throw new IOException("Lease of " + continent + " lost, not recording " + state + " " + key);
+        }
+        if (SUCCEEDED.contains(state) || GAVE_UP.contains(state)) {
+            synchronized (this) {
+                Set<String> keys = outstanding.get(continent);
+                Set<String> failures = gaveUp.get(continent);
+                if (keys != null) {
+                    keys.remove(key);
+                }
+                if (failures != null && GAVE_UP.contains(state)) {
+                    failures.add(key);
+                } else if (failures != null) {
+                    failures.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the finished continents as done and gives up the others.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            releaseFinished();
+        } finally {
+            leases.close();
+        }
+    }
+
+    /**
+     * @return number of datasets given up on per continent finished
+     */
+    private synchronized Map<String, Integer> finished() {
+        Map<String, Integer> finished = Maps.newHashMap();
+        for (Map.Entry<String, Set<String>> entry : outstanding.entrySet()) {
+            if (fetched.contains(entry.getKey()) && entry.getValue().isEmpty()) {
+                finished.put(entry.getKey(), gaveUp.get(entry.getKey()).size());
+            }
+        }
+        for (String continent : finished.keySet()) {
+            outstanding.remove(continent);
+            gaveUp.remove(continent);
+            fetched.remove(continent);
+        }
+        return finished;
+    }
+
+}
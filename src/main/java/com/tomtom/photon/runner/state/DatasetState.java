@@ -0,0 +1,33 @@
+package com.tomtom.photon.runner.state;
+
+/**
+ * Progress of a continent or country dataset through the pipeline.
+ *
+ * The order of the constants is not the pipeline order but the order in which states take precedence on resume,
+ * which {@link #isAtLeast(DatasetState)} and {@link StateJournal#reached(String, DatasetState)} rely on: the
+ * next run of the continent moves a dead letter back to fetched/ and sends it again, so DEAD_LETTER comes before
+ * SENT; a failed conversion is retried, so FAILED comes before CONVERTED; a carried forward country needs
+ * nothing more, so CARRIED comes last. Keep new states in that order.
+ */
+public enum DatasetState {
+
+    /** continent fetched from the access point */
+    FETCHED,
+    /** country moved to the dead letter directory after all send attempts failed, the next run sends it again */
+    DEAD_LETTER,
+    /** country sent to the zoning service */
+    SENT,
+    /** country failed on hadoop in every attempt, a later run converts it again */
+    FAILED,
+    /** country converted on hadoop, its tifascii output not yet in the destination */
+    CONVERTED,
+    /** tifascii output of the country moved to the destination */
+    MOVED,
+    /** country unchanged since an earlier run, whose tifascii output was carried forward */
+    CARRIED;
+
+    public boolean isAtLeast(DatasetState state) {
+        return compareTo(state) >= 0;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.tomtom.photon.runner.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.tomtom.photon.runner.io.Compression;
+import com.tomtom.photon.runner.io.DirectoryMover;
+import com.tomtom.photon.runner.io.SharedProperties;
+import com.tomtom.photon.runner.pipeline.Dataset;
+
+/**
+ * Countries converted by earlier runs: hash of the dataset as fetched, branch and journal version it was
+ * fetched at and where its tifascii output went. Kept outside --out, so a later run can carry the output
+ * of countries fetched unchanged forward instead of sending and converting them again.
+ *
+ * Output is only carried forward within the same branch; the journal version may have moved.
+ */
+public class DeltaIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeltaIndex.class);
+
+    private static final String HASH = ".hash";
+    private static final String BRANCH_AND_VERSION = ".branchAndVersion";
+    private static final String OUTPUT = ".output";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final File destination;
+    private final DirectoryMover mover;
+    private final Properties previous;
+    private final Properties recorded = new Properties();
+
+    /**
+     * @param destination directory the tifascii output of this run goes to
+     * @param mover copies the output carried forward
+     */
+    public static DeltaIndex load(File file, File destination, DirectoryMover mover) throws IOException {
+        return new DeltaIndex(file, destination, mover, SharedProperties.read(file));
+    }
+
+    private DeltaIndex(File file, File destination, DirectoryMover mover, Properties previous) {
+        this.file = file;
+        this.destination = destination;
+        this.mover = mover;
+        this.previous = previous;
+    }
+
+    /**
+     * @return hash of the content of a fetched dataset, the same whether it is compressed or not
+     */
+    public static String hash(File dataset) throws IOException {
+        InputStream is = Compression.open(dataset);
+        try {
+            Hasher hasher = Hashing.sha256().newHasher();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, read);
+            }
+            return hasher.hash().toString();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Copies the output of an earlier conversion of the dataset to the destination, if the dataset has the
+     * same hash and branch as then and that output still exists. The copy is verified and only then renamed
+     * into place, so an interrupted run never leaves a partial output behind.
+     *
+     * @return true if the output was carried forward, false if the dataset has to be converted
+     */
+    public boolean carryForward(Dataset dataset) throws IOException, InterruptedException {
+        String key = dataset.getKey();
+        String hash = previous.getProperty(key + HASH);
+        String branchAndVersion = previous.getProperty(key + BRANCH_AND_VERSION);
+        String output = previous.getProperty(key + OUTPUT);
+        if (hash == null || !hash.equals(dataset.getContentHash()) || branchAndVersion == null || output == null
+            || !branch(branchAndVersion).equals(branch(dataset.getBranchAndVersion()))) {
+            return false;
+        }
+        File source = new File(output);
+        if (!source.isDirectory()) {
+            LOGGER.warn("Output of " + key + " is gone from " + source + ", converting it again");
+            return false;
+        }
+        File target = new File(destination, dataset.getCountry());
+        if (!source.getCanonicalFile().equals(target.getCanonicalFile())) {
+            mover.copy(source, target);
+        }
+        LOGGER.info("Carried " + key + " forward from " + branchAndVersion + " to " + target);
+        record(dataset, target);
+        return true;
+    }
+
+    /**
+     * Records the output of a dataset converted by this run. Datasets without a content hash, i.e. fetched
+     * by an interrupted run, are left out. The index is updated under a lock, keeping what other runner
+     * instances sharing it recorded meanwhile.
+     */
+    public synchronized void record(Dataset dataset, File output) throws IOException {
+        if (dataset.getContentHash() == null) {
+            return;
+        }
+        String key = dataset.getKey();
+        recorded.setProperty(key + HASH, dataset.getContentHash());
+        recorded.setProperty(key + BRANCH_AND_VERSION, dataset.getBranchAndVersion());
+        recorded.setProperty(key + OUTPUT, output.getAbsolutePath());
+        SharedProperties.update(file, recorded, "Converted countries");
+    }
+
+    private static String branch(String branchAndVersion) {
+        int colon = branchAndVersion.indexOf(':');
+        return colon < 0 ? branchAndVersion : branchAndVersion.substring(0, colon);
+    }
+
+}
@@ -0,0 +1,294 @@
+package com.tomtom.photon.runner.state;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Leases of runner instances sharing an exchange dir, kept as files &lt;name&gt;.&lt;generation&gt;.lease in
+ * the leases directory. The lease with the highest generation is the current one: it names its owner, until
+ * when it is valid and whether the work it covers is done.
+ *
+ * An instance claims a lease by creating the next generation, which only one instance can do, once the
+ * current one is expired or released. The owner renews its leases every third of the lease time; an
+ * instance that crashed stops renewing, so its leases expire and are claimed by others. An owner that finds
+ * a later generation of one of its leases has lost it and stops renewing it.
+ *
+ * Expiry is compared against the clocks of all instances, which have to be in sync to well within the lease
+ * time.
+ */
+public class Leases implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Leases.class);
+
+    private static final String SUFFIX = ".lease";
+    private static final String OWNER = "owner";
+    private static final String PREVIOUS_OWNER = "previousOwner";
+    private static final String EXPIRES = "expires";
+    private static final String DONE = "done";
+
+    private final File dir;
+    private final String owner;
+    private final long leaseMillis;
+    private final Map<String, Lease> held = Maps.newHashMap();
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * Lease as read from its file.
+     */
+    public static final class Lease {
+
+        private final String name;
+        private final int generation;
+        private final String owner;
+        private final Optional<String> previousOwner;
+        private final long expires;
+        private final boolean done;
+
+        Lease(String name, int generation, String owner, Optional<String> previousOwner, long expires, boolean done) {
+            this.name = name;
+            this.generation = generation;
+            this.owner = owner;
+            this.previousOwner = previousOwner;
+            this.expires = expires;
+            this.done = done;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * @return owner of the generation before, absent for the first one
+         */
+        public Optional<String> getPreviousOwner() {
+            return previousOwner;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public boolean isExpired() {
+            return expires < System.currentTimeMillis();
+        }
+
+    }
+
+    /**
+     * @param owner name of this instance, distinct among the instances sharing the directory and usable in
+     *            file names
+     */
+    public Leases(File dir, String owner, long leaseTime, TimeUnit unit) {
+        this.dir = dir;
+        this.owner = owner;
+        this.leaseMillis = unit.toMillis(leaseTime);
+        dir.mkdirs();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("lease-heartbeat").setDaemon(true).build());
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                renew();
+            }
+        }, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return current lease of the name, absent if it was never claimed
+     */
+    public Optional<Lease> get(String name) throws IOException {
+        int generation = 0;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + dir);
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.startsWith(name + ".") && fileName.endsWith(SUFFIX)) {
+                try {
+                    generation = Math.max(generation, Integer.parseInt(
+                        fileName.substring(name.length() + 1, fileName.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // lease of another name starting with this one
+                }
+            }
+        }
+        return generation == 0 ? Optional.<Lease> absent() : Optional.of(read(name, generation));
+    }
+
+    /**
+     * Claims the lease if it was never claimed, is expired or released and not done, or was held by an earlier
+     * incarnation of this instance.
+     *
+     * @return the lease claimed, absent if it was not
+     */
+    public synchronized Optional<Lease> tryClaim(String name) throws IOException {
+        Optional<Lease> current = get(name);
+        if (current.isPresent() && (current.get().isDone()
+            || !current.get().isExpired() && !current.get().getOwner().equals(owner))) {
+            return Optional.absent();
+        }
+        int generation = current.isPresent() ? current.get().getGeneration() + 1 : 1;
+        Optional<String> previousOwner = current.isPresent() ? Optional.of(current.get().getOwner())
+            : Optional.<String> absent();
+        Lease lease =
+            new Lease(name, generation, owner, previousOwner, System.currentTimeMillis() + leaseMillis, false);
+        File tmp = write(lease);
+        try {
+            // a link fails if the generation exists, so only one claim of it wins
+            Files.createLink(file(name, generation).toPath(), tmp.toPath());
+        } catch (FileAlreadyExistsException e) {
+            return Optional.absent();
+        } finally {
+            tmp.delete();
+        }
+        held.put(name, lease);
+        LOGGER.info("Claimed " + name + (previousOwner.isPresent() ? " from " + previousOwner.get() : ""));
+        for (int i = 1; i < generation; i++) {
+            file(name, i).delete();
+        }
+        return Optional.of(lease);
+    }
+
+    /**
+     * A lease counts as held only until a third of the lease time before it expires, leaving that margin for
+     * clock skew and for work done after asking. A healthy heartbeat keeps it out of the margin; one that fails
+     * to renew, e.g. on a stalled file system, lets it lapse here without waiting for the heartbeat to notice.
+     *
+     * @return true if this instance holds the lease and did not lose it since
+     */
+    public synchronized boolean holds(String name) {
+        Lease lease = held.get(name);
+        return lease != null && lease.expires - leaseMillis / 3 > System.currentTimeMillis();
+    }
+
+    /**
+     * Gives the lease up, letting others claim it unless it is done.
+     */
+    public synchronized void release(String name, boolean done) throws IOException {
+        Lease lease = held.remove(name);
+        if (lease == null) {
+            return;
+        }
+        replace(new Lease(name, lease.getGeneration(), owner, lease.getPreviousOwner(), 0, done));
+        LOGGER.info("Released " + name + (done ? " as done" : ""));
+    }
+
+    /**
+     * Releases all leases still held, as not done.
+     */
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        List<String> names;
+        synchronized (this) {
+            names = Lists.newArrayList(held.keySet());
+        }
+        for (String name : names) {
+            try {
+                release(name, false);
+            } catch (IOException e) {
+                LOGGER.warn("Could not release " + name + ", it expires in time", e);
+            }
+        }
+    }
+
+    private synchronized void renew() {
+        for (Lease lease : Lists.newArrayList(held.values())) {
+            String name = lease.getName();
+            try {
+                Optional<Lease> current = get(name);
+                if (!current.isPresent() || current.get().getGeneration() != lease.getGeneration()) {
+                    LOGGER.error("Lost " + name + (current.isPresent() ? " to " + current.get().getOwner() : ""));
+                    held.remove(name);
+                    continue;
+                }
+                Lease renewed = new Lease(name, lease.getGeneration(), owner, lease.getPreviousOwner(),
+                    System.currentTimeMillis() + leaseMillis, false);
+                replace(renewed);
+                held.put(name, renewed);
+            } catch (IOException e) {
+                LOGGER.warn("Could not renew " + name, e);
+            }
+        }
+    }
+
+    private Lease read(String name, int generation) throws IOException {
+        Properties props = new Properties();
+        InputStream is = new FileInputStream(file(name, generation));
+        try {
+            props.load(is);
+        } finally {
+            is.close();
+        }
+        return new Lease(name, generation, props.getProperty(OWNER, ""),
+            Optional.fromNullable(props.getProperty(PREVIOUS_OWNER)), Long.parseLong(props.getProperty(EXPIRES, "0")),
+            Boolean.parseBoolean(props.getProperty(DONE)));
+    }
+
+    /**
+     * Writes the lease next to its file, named after this instance so concurrent claims do not collide.
+     */
+    private File write(Lease lease) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(OWNER, lease.getOwner());
+        if (lease.getPreviousOwner().isPresent()) {
+            props.setProperty(PREVIOUS_OWNER, lease.getPreviousOwner().get());
+        }
+        props.setProperty(EXPIRES, Long.toString(lease.expires));
+        props.setProperty(DONE, Boolean.toString(lease.isDone()));
+        File tmp = new File(dir, file(lease.getName(), lease.getGeneration()).getName() + "." + owner + ".tmp");
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            props.store(os, "Lease of " + lease.getName());
+        } finally {
+            os.close();
+        }
+        return tmp;
+    }
+
+    private void replace(Lease lease) throws IOException {
+        Files.move(write(lease).toPath(), file(lease.getName(), lease.getGeneration()).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File file(String name, int generation) {
+        return new File(dir, name + "." + generation + SUFFIX);
+    }
+
+}
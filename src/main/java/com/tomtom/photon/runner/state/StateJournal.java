@@ -0,0 +1,384 @@
+package com.tomtom.photon.runner.state;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.tomtom.photon.runner.PhotonRunner;
+import com.tomtom.photon.runner.pipeline.Dataset;
+
+/**
+ * Append-only journal of the state transitions of continents and countries, kept under --out as
+ * state.journal. Replaces the .done marker files.
+ *
+ * Lookups are served from an in-memory index. Records are appended by a single writer thread that
+ * syncs them in batches; {@link #record(String, DatasetState)} returns once its record is on disk.
+ * On open the journal is replayed and compacted to one line per key. If there is no journal yet, the
+ * existing marker files are migrated into it.
+ *
+ * Runner instances sharing --out each keep their own journal, journals/&lt;instance&gt;.journal. An instance
+ * taking a continent over from another adopts the states of its datasets from the journal of the other.
+ */
+public class StateJournal implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateJournal.class);
+
+    public static final String JOURNAL_FILE = "state.journal";
+    public static final String JOURNALS_DIR = "journals";
+
+    private static final long BATCH_MILLIS = 20;
+
+    /**
+     * Written in place of a state for a key whose state was dropped.
+     */
+    private static final String FORGOTTEN = "FORGOTTEN";
+
+    private final ConcurrentMap<String, DatasetState> index;
+    private final FileOutputStream stream;
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile Guard guard;
+
+    private final Object lock = new Object();
+    private StringBuilder pending = new StringBuilder();
+    private long appended = 0;
+    private long synced = 0;
+    private IOException failure;
+    private boolean closed = false;
+
+    /**
+     * Sees every transition before it is recorded.
+     */
+    public interface Guard {
+
+        /**
+         * @throws IOException to refuse the transition
+         */
+        void recording(String key, DatasetState state) throws IOException;
+
+    }
+
+    public static StateJournal open(File out) throws IOException {
+        return open(out, Optional.<String> absent());
+    }
+
+    /**
+     * @param instance name of the runner instance among several sharing --out, absent if it is the only one
+     */
+    public static StateJournal open(File out, Optional<String> instance) throws IOException {
+        File journal = file(out, instance);
+        ConcurrentMap<String, DatasetState> index = Maps.newConcurrentMap();
+        if (journal.exists()) {
+            replay(journal, index);
+        } else if (!instance.isPresent()) {
+            migrate(out, index);
+        }
+        compact(journal, index);
+        LOGGER.info("State of " + index.size() + " datasets loaded from " + journal);
+        return new StateJournal(journal, index);
+    }
+
+    private StateJournal(File journal, ConcurrentMap<String, DatasetState> index) throws IOException {
+        this.index = index;
+        this.stream = new FileOutputStream(journal, true);
+        this.channel = stream.getChannel();
+        this.writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                write();
+            }
+        }, "state-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return journal of the instance, or the journal of the only one if absent
+     */
+    public static File file(File out, Optional<String> instance) {
+        return instance.isPresent() ? new File(new File(out, JOURNALS_DIR), instance.get() + ".journal")
+            : new File(out, JOURNAL_FILE);
+    }
+
+    public void guard(Guard guard) {
+        this.guard = guard;
+    }
+
+    /**
+     * Records the states of the continent and its countries found in another journal.
+     *
+     * @return number of states adopted
+     */
+    public int adopt(File journal, String continent) throws IOException {
+        if (!journal.exists()) {
+            return 0;
+        }
+        Map<String, DatasetState> other = Maps.newLinkedHashMap();
+        replay(journal, other);
+        int adopted = 0;
+        for (Map.Entry<String, DatasetState> entry : other.entrySet()) {
+            String key = entry.getKey();
+            if ((key.equals(continent) || key.startsWith(continent + "/")) && entry.getValue() != index.get(key)) {
+                record(key, entry.getValue());
+                adopted++;
+            }
+        }
+        return adopted;
+    }
+
+    /**
+     * @return keys of the countries of the continent that have a state
+     */
+    public List<String> countries(String continent) {
+        List<String> keys = Lists.newArrayList();
+        for (String key : index.keySet()) {
+            if (key.startsWith(continent + "/")) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    public Optional<DatasetState> get(String key) {
+        return Optional.fromNullable(index.get(key));
+    }
+
+    /**
+     * @return true if the key got at least to the given state
+     */
+    public boolean reached(String key, DatasetState state) {
+        DatasetState current = index.get(key);
+        return current != null && current.isAtLeast(state);
+    }
+
+    public boolean reached(Dataset dataset, DatasetState state) {
+        return reached(dataset.getKey(), state);
+    }
+
+    public void record(Dataset dataset, DatasetState state) throws IOException {
+        record(dataset.getKey(), state);
+    }
+
+    /**
+     * Records a transition and waits until it is synced to disk.
+     */
+    public void record(String key, DatasetState state) throws IOException {
+        Guard current = guard;
+        if (current != null) {
+            current.recording(key, state);
+        }
+        index.put(key, state);
+        append(line(key, state));
+    }
+
+    /**
+     * Drops the state of the key, so that it is worked on again as if it never was, and waits until that is
+     * synced to disk.
+     */
+    public void forget(String key) throws IOException {
+        index.remove(key);
+        append(FORGOTTEN + " " + key + "\n");
+    }
+
+    private void append(String line) throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("State journal closed");
+            }
+            pending.append(line);
+            long ticket = ++appended;
+            lock.notifyAll();
+            try {
+                while (synced < ticket && failure == null) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for state journal");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stream.close();
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                synchronized (lock) {
+                    while (pending.length() == 0 && !closed) {
+                        lock.wait();
+                    }
+                    if (pending.length() == 0) {
+                        return;
+                    }
+                }
+                if (!isClosed()) {
+                    // let concurrent records join this batch
+                    TimeUnit.MILLISECONDS.sleep(BATCH_MILLIS);
+                }
+                String batch;
+                long ticket;
+                synchronized (lock) {
+                    batch = pending.toString();
+                    pending = new StringBuilder();
+                    ticket = appended;
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(batch.getBytes(Charsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+                synchronized (lock) {
+                    synced = ticket;
+                    lock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("State journal writer interrupted"));
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            fail(e);
+        }
+    }
+
+    private boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (lock) {
+            failure = e;
+            lock.notifyAll();
+        }
+    }
+
+    private static String line(String key, DatasetState state) {
+        return state.name() + " " + key + "\n";
+    }
+
+    private static void replay(File journal, Map<String, DatasetState> index) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(journal), Charsets.UTF_8));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator < 0) {
+                    // torn last line of a crashed run
+                    LOGGER.warn("Skipping journal line: " + line);
+                    continue;
+                }
+                String key = line.substring(separator + 1);
+                if (line.startsWith(FORGOTTEN + " ")) {
+                    index.remove(key);
+                    continue;
+                }
+                try {
+                    index.put(key, DatasetState.valueOf(line.substring(0, separator)));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Skipping journal line: " + line);
+                }
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Picks up the .done markers of runs made before the journal existed.
+     */
+    private static void migrate(File out, Map<String, DatasetState> index) {
+        File[] fetched = new File(out, PhotonRunner.FETCHED_DIR).listFiles();
+        if (fetched != null) {
+            for (File continent : fetched) {
+                if (new File(continent, continent.getName() + ".done").exists()) {
+                    index.put(continent.getName(), DatasetState.FETCHED);
+                }
+                migrate(continent, DatasetState.SENT, index);
+            }
+        }
+        File[] sent = new File(out, PhotonRunner.SENT_DIR).listFiles();
+        if (sent != null) {
+            for (File continent : sent) {
+                migrate(continent, DatasetState.MOVED, index);
+            }
+        }
+        if (!index.isEmpty()) {
+            LOGGER.info("Migrated " + index.size() + " .done markers");
+        }
+    }
+
+    private static void migrate(File continent, DatasetState state, Map<String, DatasetState> index) {
+        File[] markers = continent.listFiles();
+        if (markers == null) {
+            return;
+        }
+        for (File marker : markers) {
+            String name = marker.getName();
+            if (name.endsWith(".json.done") && !name.startsWith("$")) {
+                String key = Dataset.key(continent.getName(), name.substring(0, 3));
+                DatasetState current = index.get(key);
+                if (current == null || !current.isAtLeast(state)) {
+                    index.put(key, state);
+                }
+            }
+        }
+    }
+
+    private static void compact(File journal, Map<String, DatasetState> index) throws IOException {
+        journal.getAbsoluteFile().getParentFile().mkdirs();
+        File tmp = new File(journal.getAbsoluteFile().getParentFile(), journal.getName() + ".tmp");
+        FileOutputStream os = new FileOutputStream(tmp);
+        try {
+            Writer writer = new OutputStreamWriter(os, Charsets.UTF_8);
+            for (Map.Entry<String, DatasetState> entry : index.entrySet()) {
+                writer.write(line(entry.getKey(), entry.getValue()));
+            }
+            writer.flush();
+            os.getChannel().force(false);
+        } finally {
+            os.close();
+        }
+        Files.move(tmp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
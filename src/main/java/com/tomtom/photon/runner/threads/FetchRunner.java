@@ -1,107 +1,367 @@
 package com.tomtom.photon.runner.threads;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.teleatlas.global.common.util.IOUtil;
 import com.tomtom.photon.runner.PhotonRunner;
+import com.tomtom.photon.runner.conf.ContinentRegistry;
 import com.tomtom.photon.runner.conf.ContinentSettings;
 import com.tomtom.photon.runner.conf.ZoneMakerConf;
-import com.tomtom.photon.tools.zonemaker.Params;
-import com.tomtom.photon.tools.zonemaker.ZoneMaker;
+import com.tomtom.photon.runner.io.Compression;
+import com.tomtom.photon.runner.io.ZoneManifest;
+import com.tomtom.photon.runner.metrics.Metrics;
+import com.tomtom.photon.runner.metrics.StageMetrics;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Handoff;
+import com.tomtom.photon.runner.pipeline.Stage;
+import com.tomtom.photon.runner.state.ContinentClaims;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.DeltaIndex;
+import com.tomtom.photon.runner.state.StateJournal;
+import com.tomtom.photon.runner.zoning.ZoningClient;
 
-public class FetchRunner implements Callable<Void> {
+public class FetchRunner extends Stage {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FetchRunner.class);
 
-	private final List<ContinentSettings> continents;
-	private final ZoneMakerConf zoneMakerConf;
+	/**
+	 * Directory within fetched/&lt;continent&gt; ZoneMaker fetches into; only complete countries leave it.
+	 */
+	private static final String INCOMING_DIR = ".incoming";
+
+	private static final long CLAIM_POLL_MILLIS = 1000;
 
-	protected boolean finished = false;
+	private final ContinentRegistry registry;
+	private final ZoneMakerConf zoneMakerConf;
+	private final int parallelism;
+	private final StateJournal journal;
+	private final StageMetrics metrics;
+	private final ZoningClient client;
+	private final Optional<DeltaIndex> delta;
+	private final boolean compress;
+	private final Optional<ContinentClaims> claims;
+	private final WorkDiscovery sent;
 
-	public FetchRunner(List<ContinentSettings> continents, ZoneMakerConf zoneMakerConf) {
-		super();
-		this.continents = continents;
+	/**
+	 * @param delta countries converted by earlier runs, present in incremental runs only
+	 * @param compress whether fetched countries are kept gzip compressed
+	 * @param claims continents of this instance, present if several instances share --out
+	 */
+	public FetchRunner(ContinentRegistry registry, ZoneMakerConf zoneMakerConf, ZoningClient client, int parallelism,
+		StateJournal journal, Optional<DeltaIndex> delta, boolean compress, Optional<ContinentClaims> claims,
+		Metrics metrics, Handoff output) {
+		super(output);
+		this.registry = registry;
 		this.zoneMakerConf = zoneMakerConf;
+		this.client = client;
+		this.parallelism = parallelism;
+		this.journal = journal;
+		this.delta = delta;
+		this.compress = compress;
+		this.claims = claims;
+		this.sent = new WorkDiscovery(new File(zoneMakerConf.getOut(), PhotonRunner.SENT_DIR), journal);
+		this.metrics = metrics.stage("fetch");
 	}
 
+	/**
+	 * Fetches up to parallelism continents at once. Each continent is handed downstream as soon as
+	 * it is fetched, regardless of the order in the continents file. Countries an earlier run sent but
+	 * did not get to the destination are handed on first, also of continents no longer configured.
+	 */
 	@Override
-	public Void call() throws Exception {
-        try {
-            fetch();
-			LOGGER.info("Finished");
-			finished = true;
-        } catch (Exception e) {
-            LOGGER.error(e.getMessage(), e);
-            throw e;
-        }
-		return null;
-	}
-
-	private void fetch() throws IOException {
+	protected void process() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism,
+			new ThreadFactoryBuilder().setNameFormat("fetch-continent-%d").build());
+		try {
+			List<ContinentSettings> continents = continents();
+			CompletionService<Void> completion = new ExecutorCompletionService<Void>(pool);
+			if (claims.isPresent()) {
+				claimAndFetch(continents, completion);
+				return;
+			}
+			for (ContinentSettings con : continents) {
+				submit(con, completion);
+			}
+			for (int i = 0; i < continents.size(); i++) {
+				await(completion.take());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Claims continents that are not claimed by other instances, or were given up by them, until every
+	 * continent is done or claimed by this instance. Claims of continents it finished are released meanwhile.
+	 */
+	private void claimAndFetch(List<ContinentSettings> continents, CompletionService<Void> completion)
+		throws Exception {
+		List<ContinentSettings> remaining = Lists.newArrayList(continents);
+		int running = 0;
+		while (!remaining.isEmpty() || running > 0) {
+			claims.get().releaseFinished();
+			for (Iterator<ContinentSettings> it = remaining.iterator(); it.hasNext();) {
+				ContinentSettings con = it.next();
+				if (claims.get().isDone(con.getName())) {
+					it.remove();
+				} else if (claims.get().tryClaim(con.getName())) {
+					it.remove();
+					submit(con, completion);
+					running++;
+				}
+			}
+			Future<Void> fetched = completion.poll(CLAIM_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if (fetched != null) {
+				await(fetched);
+				running--;
+			}
+		}
+	}
+
+	private void submit(final ContinentSettings con, CompletionService<Void> completion) throws IOException {
+		boolean found = false;
+		for (ContinentSettings other : registry.getConfigured()) {
+			found |= other.getName().equals(con.getName());
+		}
+		final boolean configured = found;
+		completion.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				emitSent(con);
+				if (configured) {
+					fetch(con);
+				}
+				if (claims.isPresent()) {
+					claims.get().fetched(con.getName());
+				}
+				return null;
+			}
+		});
+	}
+
+	private static void await(Future<Void> fetched) throws Exception {
+		try {
+			fetched.get();
+		} catch (ExecutionException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * @return configured continents, followed by the continents an earlier run left in sent/ only
+	 */
+	private List<ContinentSettings> continents() throws IOException {
+		List<ContinentSettings> continents = Lists.newArrayList(registry.getConfigured());
+		Set<String> names = Sets.newHashSet();
 		for (ContinentSettings con : continents) {
-            final File continentFetchOut = prepareFileSystem(con);
+			names.add(con.getName());
+		}
+		for (String name : sent.continents()) {
+			if (!names.contains(name)) {
+				Optional<ContinentSettings> con = registry.get(name);
+				if (!con.isPresent()) {
+					throw new IOException("No settings for continent " + name);
+				}
+				continents.add(con.get());
+			}
+		}
+		return continents;
+	}
 
-			LOGGER.info("Fetch: " + con.getName());
-			File doneMarker = new File(continentFetchOut, con.getName()+".done");
-			if (doneMarker.exists()) {
-				LOGGER.info("Already fetched skipping.");
-				continue;
+	/**
+	 * Hands countries of the continent sent by an earlier run but not converted and moved yet on. They pass
+	 * the send stage unchanged and keep the branch and version they were sent with, whatever the continents
+	 * file says now.
+	 */
+	private void emitSent(ContinentSettings con) throws IOException, InterruptedException {
+		Optional<ContinentSettings> sentWith = registry.getSent(con.getName());
+		for (File file : sent.resumable(con.getName())) {
+			Dataset dataset = Dataset.builder().file(file).size(file.length()).build();
+			String branchAndVersion = sentWith.or(con).getBranchAndVersion();
+			Optional<ZoneManifest.Entry> entry = ZoneManifest.lookup(file.getParentFile(), dataset.getCountry());
+			if (entry.isPresent() && entry.get().getBranchAndVersion() != null) {
+				branchAndVersion = entry.get().getBranchAndVersion();
 			}
-			runZoneMaker(continentFetchOut, con);
+			dataset = dataset.toBuilder().branchAndVersion(branchAndVersion).build();
+			LOGGER.info("Resuming " + file.getName());
+			handOn(dataset);
+		}
+	}
+
+	/**
+	 * Fetches the continent into its incoming directory. Every country is published to the continent
+	 * directory with a single rename and handed on as soon as it is complete, so sending overlaps the
+	 * rest of the fetch. Continents fetched by an earlier run are handed on from the continent directory,
+	 * along with the countries it gave up sending.
+	 */
+	private void fetch(final ContinentSettings con) throws IOException, InterruptedException {
+        final File continentFetchOut = prepareFileSystem(con);
+		requeueDeadLetters(continentFetchOut, con);
 
-			doneMarker.createNewFile();
-			LOGGER.info("Done: " + con.getName());
+		LOGGER.info("Fetch: " + con.getName());
+		if (journal.reached(con.getName(), DatasetState.FETCHED)) {
+			LOGGER.info("Already fetched skipping.");
+			emitFetched(continentFetchOut, con);
+			return;
+		}
+		File incoming = new File(continentFetchOut, INCOMING_DIR);
+		if (incoming.exists()) {
+			// countries of an interrupted fetch may be incomplete
+			IOUtil.rmDir(incoming);
+		}
+		incoming.mkdirs();
+		long start = metrics.start();
+		try {
+			client.fetch(con, incoming, new ZoningClient.FetchListener() {
+
+				@Override
+				public void fetched(File country) {
+					try {
+						publish(country, continentFetchOut, con);
+					} catch (IOException e) {
+						throw Throwables.propagate(e);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("Interrupted", e);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			metrics.failed(start);
+			throw e;
+		}
+		metrics.done(start);
+		publishRest(incoming, continentFetchOut);
+
+		journal.record(con.getName(), DatasetState.FETCHED);
+		LOGGER.info("Done: " + con.getName());
+	}
+
+	/**
+	 * Moves the countries an earlier run gave up sending from deadletter/ back to the continent directory,
+	 * so that they are handed on and sent again. Fetching the continent again replaces them.
+	 */
+	private void requeueDeadLetters(File continentFetchOut, ContinentSettings con) throws IOException {
+		File deadLetters = new File(new File(zoneMakerConf.getOut(), PhotonRunner.DEAD_LETTER_DIR), con.getName());
+		for (File file : Dataset.listCountryFiles(deadLetters)) {
+			LOGGER.info("Sending dead letter " + file.getName() + " again");
+			Files.move(file.toPath(), new File(continentFetchOut, file.getName()).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Moves a fetched country from the incoming directory to the continent directory, compressed if asked
+	 * to, and hands it on.
+	 */
+	private void publish(File country, File continentFetchOut, ContinentSettings con)
+		throws IOException, InterruptedException {
+		File published;
+		if (compress) {
+			published = new File(continentFetchOut, country.getName() + Compression.SUFFIX);
+			Compression.compress(country, published);
+		} else {
+			published = new File(continentFetchOut, country.getName());
+			Files.move(country.toPath(), published.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		emitCountry(published, con);
+	}
+
+	/**
+	 * Moves the continent level files left in the incoming directory to the continent directory.
+	 */
+	private static void publishRest(File incoming, File continentFetchOut) throws IOException {
+		File[] files = incoming.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + incoming);
+		}
+		for (File file : files) {
+			Files.move(file.toPath(), new File(continentFetchOut, file.getName()).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		IOUtil.rmDir(incoming);
+	}
+
+	/**
+	 * Hands all countries of the continent not sent yet to the send stage.
+	 */
+	private void emitFetched(File continentFetchOut, ContinentSettings con) throws IOException, InterruptedException {
+		if (compress) {
+			compress(continentFetchOut);
+		}
+		for (File file : Dataset.listCountryFiles(continentFetchOut)) {
+			emitCountry(file, con);
+		}
+	}
+
+	/**
+	 * Hands the country to the send stage unless it was sent already. In incremental runs countries fetched
+	 * unchanged since an earlier conversion get its output instead and are not handed on.
+	 */
+	private void emitCountry(File file, ContinentSettings con) throws IOException, InterruptedException {
+		Dataset dataset = Dataset.builder().file(file).branchAndVersion(con.getBranchAndVersion()).size(file.length())
+			.build();
+		if (journal.reached(dataset, DatasetState.SENT)) {
+			return;
+		}
+		if (delta.isPresent()) {
+			dataset = dataset.toBuilder().contentHash(DeltaIndex.hash(file)).build();
+			if (delta.get().carryForward(dataset)) {
+				journal.record(dataset, DatasetState.CARRIED);
+				return;
+			}
+		}
+		handOn(dataset);
+	}
+
+	private void handOn(Dataset dataset) throws InterruptedException {
+		if (claims.isPresent()) {
+			claims.get().emitted(dataset);
+		}
+		emit(dataset);
+	}
+
+	/**
+	 * Replaces the countries fetched uncompressed, including any left by an interrupted run, by compressed ones.
+	 */
+	private void compress(File continentFetchOut) throws IOException {
+		for (File file : Dataset.listCountryFiles(continentFetchOut)) {
+			if (!Compression.isCompressed(file)) {
+				Compression.compress(file, new File(continentFetchOut, file.getName() + Compression.SUFFIX));
+			}
 		}
-		
 	}
 
-	private File prepareFileSystem(ContinentSettings con) {
+	private File prepareFileSystem(ContinentSettings con) throws IOException {
         final String continentDir = PhotonRunner.FETCHED_DIR + File.separator + con.getName();
         File fetchOut = new File(zoneMakerConf.getOut(), continentDir);
         fetchOut.mkdirs();
-        savePropertiesFile(fetchOut, con);
+        registry.writeProperties(fetchOut, con);
         return fetchOut;
 	}
 
-    private void runZoneMaker(File continentfetchOut, ContinentSettings con) {
-        Params p = createParams(continentfetchOut, con);
-        ZoneMaker zm = new ZoneMaker(p);
-        zm.run();
-	}
-
-    private Params createParams(File continentfetchOut, ContinentSettings con) {
-        Params p = zoneMakerConf.createBasicParams(Params.WORK_MODE.FETCH);
-        p.setOutputDir(continentfetchOut.getAbsolutePath());
-        p.setRegionName(con.getName());
-        p.setRegionVersion(con.getVersion());
-        if (ZoneMakerConf.ADM_MODE_CONTINENTS.contains(con.getName())) {
-        	p.setAdministrativeLevel(Params.ADMINISTRATIVE_LEVEL.ORDER1);
-        }
-        return p;
-    }
-
-    private void savePropertiesFile(File continentfetchOut, ContinentSettings con) {
-        try {
-            Properties props = new Properties();
-            props.setProperty("name", con.getName());
-            props.setProperty("version", con.getVersion());
-            props.setProperty("branch", "" + con.getBranch());
-            props.setProperty("journalVersion", "" + con.getJournalVersion());
-            props.setProperty("branchAndVersion", "" + con.getBranchAndVersion());
-            File f = new File(continentfetchOut, "$_$" + con.getName() + ".properties");
-            OutputStream out = new FileOutputStream(f);
-            props.store(out, "Continent settings");
-        }
-        catch (Exception e ) {
-            LOGGER.error(e.getMessage(), e);
-        }
-    }
-
-}
\ No newline at end of file
+}
@@ -1,252 +1,310 @@
 package com.tomtom.photon.runner.threads;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import com.tomtom.photon.runner.PhotonRunner;
-
-public class HadoopRunner implements Callable<Void> {
+import com.google.common.util.concurrent.ListenableFuture;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.conversion.ConversionExecutor;
+import com.tomtom.photon.runner.io.ZoneManifest;
+import com.tomtom.photon.runner.io.ZoneVersionScanner;
+import com.tomtom.photon.runner.metrics.Metrics;
+import com.tomtom.photon.runner.metrics.StageMetrics;
+import com.tomtom.photon.runner.pipeline.ConversionHistory;
+import com.tomtom.photon.runner.pipeline.ConversionReport;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Handoff;
+import com.tomtom.photon.runner.pipeline.Stage;
+import com.tomtom.photon.runner.retry.RetryPolicy;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.StateJournal;
+
+public class HadoopRunner extends Stage {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HadoopRunner.class);
 
-    private final String wbmOUT = "output/wbm_rio/";
-    private final SendRunner sendTask;
-
-    private final File sentOut;
-
-    private final String hadoopConfig;
-    private final String jobConfig;
-    private final String photonConverterJar;
-
-    private final Set<String> currentlyProcessed = Sets.<String>newHashSet();
-
-    private final Semaphore s = new Semaphore(1);
-
-    private final File dest;
-
-    public HadoopRunner(String out, String hadoopConfig, String jobConfig, String photonConverterJar, String destinationDir, SendRunner sendTask) {
-        this.sentOut = new File(out, PhotonRunner.SENT_DIR);
-        this.sendTask = sendTask;
-        this.hadoopConfig = hadoopConfig;
-        this.jobConfig = jobConfig;
-        this.photonConverterJar = photonConverterJar;
-        this.dest = new File(destinationDir);
-        dest.mkdirs();
+    /**
+     * Directory the hadoop client leaves the tifascii output of a zone in.
+     */
+    public static final String WBM_OUT = "output/wbm_rio/";
+
+    private final Handoff input;
+
+    private final ConversionExecutor executor;
+
+    private final ConversionHistory history;
+    private final StateJournal journal;
+    private final File logs;
+    private final RetryPolicy retry;
+    private final ConversionReport report;
+    private final StageMetrics conversions;
+    private final int batchSize;
+    private final long batchBytes;
+
+    private Optional<Dataset> pending = Optional.absent();
+
+    /**
+     * Each hadoop worker is a separate instance; workers only share the input handoff and the history.
+     * Converted zones are handed to the move stage, so the worker is free as soon as hadoop exits.
+     *
+     * @param executor runs the hadoop jobs, shared by all workers
+     * @param logs directory for the hadoop client output, one log per &lt;continent&gt;/&lt;zone&gt;.log
+     * @param retry how often and when failed conversions are resubmitted
+     * @param batchSize maximum number of zones converted by one job, 1 converts every zone on its own
+     * @param batchBytes size up to which a zone is converted together with others
+     */
+    public HadoopRunner(Handoff input, ConversionExecutor executor, ConversionHistory history, StateJournal journal,
+        File logs, RetryPolicy retry, int batchSize, long batchBytes, ConversionReport report, Metrics metrics, Handoff output) {
+        super(output);
+        this.input = input;
+        this.history = history;
+        this.journal = journal;
+        this.logs = logs;
+        this.retry = retry;
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.report = report;
+        this.conversions = metrics.stage("hadoop");
+        this.executor = executor;
     }
 
     @Override
-    public Void call() throws Exception {
-        try {
-            runTask();
-        } catch (Exception e) {
-            LOGGER.error(e.getMessage(), e);
-            throw e;
+    protected void process() throws IOException, InterruptedException {
+        List<Dataset> batch;
+        while (!(batch = nextBatch()).isEmpty()) {
+            if (batch.size() == 1) {
+                convert(batch.get(0), 1);
+            } else {
+                convert(batch);
+            }
         }
-        return null;
     }
 
-    private void runTask() throws IOException, InterruptedException {
-        while (true) {
-
-            Optional<File> datasetToProcess = getNextDatasetToProcess();
-
-            if (sendTask.finished && !datasetToProcess.isPresent()) {
-                LOGGER.info("Finished");
+    /**
+     * Takes the next dataset and, if it is small, the small datasets queued right behind it that share its
+     * branch and zone version, up to the batch size. The first dataset not fitting is kept for the next batch.
+     *
+     * @return empty list once the input is done
+     */
+    private List<Dataset> nextBatch() throws IOException, InterruptedException {
+        List<Dataset> batch = Lists.newArrayList();
+        Optional<Dataset> next = pending.isPresent() ? pending : input.take();
+        pending = Optional.absent();
+        if (!next.isPresent()) {
+            return batch;
+        }
+        Dataset first = next.get();
+        if (!batchable(first)) {
+            batch.add(first);
+            return batch;
+        }
+        first = withZoneVersion(first);
+        batch.add(first);
+        while (batch.size() < batchSize) {
+            next = input.poll(0, TimeUnit.MILLISECONDS);
+            if (!next.isPresent()) {
+                break;
+            }
+            if (!batchable(next.get())) {
+                pending = next;
+                break;
+            }
+            Dataset dataset = withZoneVersion(next.get());
+            if (!dataset.getContinent().equals(first.getContinent())
+                || !Objects.equal(dataset.getBranchAndVersion(), first.getBranchAndVersion())
+                || !Objects.equal(dataset.getZoneVersion(), first.getZoneVersion())) {
+                pending = Optional.of(dataset);
                 break;
             }
-            if (datasetToProcess.isPresent()) {
-                File datasetToProcessFile = datasetToProcess.get();
-                String name = getName(datasetToProcessFile);
-                LOGGER.info("About to run on hadoop " + name);
-
-                runPhotonConverter(datasetToProcessFile, name);
-
-                s.acquire();
-                try {
-                    currentlyProcessed.remove(name);
-                } finally {
-                    s.release();
-                }
-                File doneMarker = new File(datasetToProcessFile.getAbsolutePath() + ".done");
-                LOGGER.info("Done on hadoop " + name);
-                LOGGER.info("Moving tifascii " + name);
-                File source = new File(wbmOUT, name);
-                File lastDest = new File(dest, name);
-                source.renameTo(lastDest);
-                LOGGER.info("Moved to " + lastDest);
-                doneMarker.createNewFile();
+            batch.add(dataset);
+        }
+        return batch;
+    }
+
+    private boolean batchable(Dataset dataset) {
+        return batchSize > 1 && dataset.getSize() <= batchBytes && !journal.reached(dataset, DatasetState.CONVERTED);
+    }
 
+    private Dataset withZoneVersion(Dataset dataset) throws IOException {
+        if (dataset.getZoneVersion() != null) {
+            return dataset;
+        }
+        return dataset.toBuilder().zoneVersion(readZoneversion(dataset)).build();
+    }
+
+    /**
+     * Converts several zones with a single job, saving the start of a job per zone. Zones the job leaves
+     * no output for are converted on their own, as far as the retry policy allows.
+     */
+    private void convert(List<Dataset> batch) throws IOException, InterruptedException {
+        Dataset first = batch.get(0);
+        List<String> names = Lists.newArrayList();
+        long size = 0;
+        for (Dataset dataset : batch) {
+            names.add(dataset.getCountry());
+            size += dataset.getSize();
+            File source = new File(WBM_OUT, dataset.getCountry());
+            if (source.exists()) {
+                IOUtil.rmDir(source);
+            }
+        }
+        LOGGER.info("About to run on hadoop " + names);
+        long start = System.currentTimeMillis();
+        long started = conversions.start();
+        int exitCode = run(first.getBranchAndVersion(), names, first.getZoneVersion(),
+            new File(new File(logs, first.getContinent()), Joiner.on('+').join(names) + ".log"));
+        long millis = System.currentTimeMillis() - start;
+
+        List<Dataset> failed = Lists.newArrayList();
+        for (Dataset dataset : batch) {
+            if (exitCode == 0 && new File(WBM_OUT, dataset.getCountry()).isDirectory()) {
+                converted(dataset, 1, size > 0 ? millis * dataset.getSize() / size : millis / batch.size());
             } else {
-                TimeUnit.SECONDS.sleep(10);
+                failed.add(dataset);
+            }
+        }
+        if (failed.size() < batch.size()) {
+            conversions.done(started, batch.size() - failed.size());
+        } else {
+            conversions.failed(started);
+        }
+        if (failed.isEmpty()) {
+            return;
+        }
+        String failure = exitCode != 0 ? "exit code " + exitCode : "no output";
+        if (!retry.canRetry(1)) {
+            for (Dataset dataset : failed) {
+                failed(dataset, 1, failure);
             }
+            return;
+        }
+        long delay = retry.delayMillis(1);
+        LOGGER.warn("Failed on hadoop " + failed + ": " + failure + ", resubmitting one by one in " + delay + " ms");
+        TimeUnit.MILLISECONDS.sleep(delay);
+        for (Dataset dataset : failed) {
+            convert(dataset, 2);
         }
     }
 
-    private Optional<File> getNextDatasetToProcess() throws IOException, InterruptedException {
-        s.acquire();
-        try {
-            for (File continentSentOut : sentOut.listFiles()) {
-                List<File> toProcessList = getFilesToProcess(continentSentOut);
-                for (File toProcess : toProcessList) {
-                    File doneMarker = new File(toProcess.getAbsolutePath() + ".done");
-                    if (!doneMarker.exists() && !currentlyProcessed.contains(toProcess.getName())) {
-                        currentlyProcessed.add(toProcess.getName());
-                        return Optional.of(toProcess);
-                    }
-                }
+    /**
+     * Runs the conversion until hadoop exits with 0 and leaves the tifascii output, at most as often as the
+     * retry policy allows. Zones failing every attempt are recorded as FAILED. Zones converted by an interrupted
+     * run whose output was not moved yet go to the move stage right away.
+     *
+     * @param first number of the first attempt, later than 1 if the zone failed in a batch before
+     */
+    private void convert(Dataset dataset, int first) throws IOException, InterruptedException {
+        String name = dataset.getCountry();
+        File source = new File(WBM_OUT, name);
+        if (journal.reached(dataset, DatasetState.CONVERTED) && source.isDirectory()) {
+            LOGGER.info("Already converted " + name + ", moving it");
+            emit(dataset);
+            return;
+        }
+        for (int attempt = first; ; attempt++) {
+            if (source.exists()) {
+                IOUtil.rmDir(source);
             }
-        } finally {
-            s.release();
+            LOGGER.info("About to run on hadoop " + name);
+            long start = System.currentTimeMillis();
+            long started = conversions.start();
+            int exitCode = runPhotonConverter(dataset);
+            long millis = System.currentTimeMillis() - start;
+
+            String failure = null;
+            if (exitCode != 0) {
+                failure = "exit code " + exitCode;
+            } else if (!source.isDirectory()) {
+                failure = "no output in " + source;
+            }
+            if (failure == null) {
+                conversions.done(started);
+                converted(dataset, attempt, millis);
+                return;
+            }
+            conversions.failed(started);
+            if (!retry.canRetry(attempt)) {
+                failed(dataset, attempt, failure);
+                return;
+            }
+            long delay = retry.delayMillis(attempt);
+            LOGGER.warn("Failed on hadoop " + name + ": " + failure + ", resubmitting in " + delay + " ms");
+            TimeUnit.MILLISECONDS.sleep(delay);
         }
-        return Optional.absent();
     }
 
-    private String getName(File toProcess) {
-        return toProcess.getName().toString().substring(0, 3);
+    /**
+     * @param millis duration of the conversion, for a batch the share of the zone by size
+     */
+    private void converted(Dataset dataset, int attempts, long millis) throws IOException, InterruptedException {
+        history.record(dataset, millis);
+        LOGGER.info("Done on hadoop " + dataset.getCountry());
+        journal.record(dataset, DatasetState.CONVERTED);
+        report.converted(dataset, attempts, millis);
+        emit(dataset);
     }
 
-    private List<File> getFilesToProcess(File directory) {
-        File[] toProcess = directory.listFiles(new FilenameFilter() {
-
-            @Override
-            public boolean accept(File dir, String name) {
-                if (name.endsWith(".json") && !name.startsWith("$")) { // countries
-                                                                       // only
-                                                                       // - $
-                                                                       // are
-                                                                       // no
-                                                                       // countries
-                    return true;
-                }
-                return false;
-            }
-        });
-        if (toProcess.length != 0) {
-            return Arrays.asList(toProcess);
-        } else {
-            return Lists.newArrayList();
-        }
+    private void failed(Dataset dataset, int attempts, String failure) throws IOException, InterruptedException {
+        LOGGER.error("Giving up on " + dataset.getCountry() + " after " + attempts + " attempts: " + failure);
+        journal.record(dataset, DatasetState.FAILED);
+        report.failed(dataset, attempts, failure);
     }
 
-    private void runPhotonConverter(File datasetToProcessFile, String name) throws InterruptedException, IOException {
-        final Properties props = SendRunner.readPropertiesFile(datasetToProcessFile.getParentFile());
-        final List<String> command = createPhotonCommand(props, name, readZoneversion(datasetToProcessFile));
+    /**
+     * @return exit code of hadoop, -1 if it could not be run
+     */
+    private int runPhotonConverter(Dataset dataset) throws IOException, InterruptedException {
+        String version = readZoneversion(dataset);
         LOGGER.info("Running hadoop...");
-        runCommand(command);
+        return run(dataset.getBranchAndVersion(), Collections.singletonList(dataset.getCountry()), version,
+            new File(new File(logs, dataset.getContinent()), dataset.getCountry() + ".log"));
     }
 
-    private String readZoneversion(File datasetToProcessFile) throws IOException {
-        Pattern pattern = Pattern.compile("\"version\" : \"([0-9\\.]+)\",");
-        FileReader input = new FileReader(datasetToProcessFile);
+    /**
+     * Waits for the job, which is cancelled if the worker is interrupted. A job interrupted as the executor shuts
+     * down interrupts the worker as well, instead of counting as a failed attempt to retry.
+     */
+    private int run(String branchAndVersion, List<String> zones, String version, File log)
+        throws InterruptedException {
+        ListenableFuture<Integer> job = executor.submit(branchAndVersion, zones, version, log);
         try {
-            LineIterator lineIterator = IOUtils.lineIterator(input);
-
-            while (lineIterator.hasNext()) {
-                String line = lineIterator.nextLine();
-                Matcher matcher = pattern.matcher(line);
-                if (matcher.find()) {
-                    return matcher.group(1);
-                }
+            return job.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw new InterruptedException("Conversion of " + zones + " interrupted");
             }
-
+            LOGGER.error("Could not run hadoop on " + zones, e.getCause());
+            return -1;
         } finally {
-            input.close();
+            job.cancel(true);
         }
-        return null;
-    }
-
-    private List<String> createPhotonCommand(Properties props, String name, String version) {
-        final List<String> photon = Lists.newArrayList();
-        photon.add("hadoop");
-        photon.add("--config");
-        photon.add(this.hadoopConfig);
-        photon.add("jar");
-        photon.add(this.photonConverterJar);
-        photon.add("--config");
-        photon.add(this.jobConfig);
-        photon.add("--model");
-        photon.add("wbm_rio");
-        photon.add("--type");
-        photon.add("COUNTRY");
-        photon.add("--zone");
-        photon.add(name);
-        photon.add("--version");
-        photon.add(version);
-        photon.add("--format");
-        photon.add("TIFF_ASCII");
-        photon.add("--branchAndVersion");
-        photon.add(props.getProperty("branchAndVersion"));
-        return photon;
     }
 
-    private void runCommand(List<String> command) throws IOException {
-        LOGGER.info(command.toString());
-        ProcessBuilder builder = new ProcessBuilder(command.toArray(new String[] {}));
-        try {
-            final Process process = builder.start();
-            // Handle stdout...
-            new Thread() {
-
-                @Override
-				public void run() {
-                    BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    try {
-                        String inputLine;
-                        while ((inputLine = in.readLine()) != null)
-                            System.out.println(inputLine);
-                        in.close();
-                    } catch (Exception anExc) {
-                        anExc.printStackTrace();
-                    } finally {
-                        IOUtils.closeQuietly(in);
-                    }
-                }
-            }.start();
-
-            // Handle stderr...
-            new Thread() {
-
-                @Override
-				public void run() {
-                    BufferedReader in = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-                    try {
-                        String inputLine;
-                        while ((inputLine = in.readLine()) != null)
-                            System.out.println(inputLine);
-                    } catch (Exception anExc) {
-                        anExc.printStackTrace();
-                    } finally {
-                        IOUtils.closeQuietly(in);
-                    }
-                }
-            }.start();
-
-            int res = process.waitFor();
-            LOGGER.info("Output: " + res);
-        } catch (Exception e) {
-            LOGGER.error(e.getMessage(), e);
+    /**
+     * The send stage hands the zone version over with the dataset. Datasets sent by an interrupted run
+     * are looked up in the continent manifest, datasets sent by older versions are scanned.
+     */
+    private String readZoneversion(Dataset dataset) throws IOException {
+        if (dataset.getZoneVersion() != null) {
+            return dataset.getZoneVersion();
+        }
+        File datasetToProcessFile = dataset.getFile();
+        Optional<ZoneManifest.Entry> entry = ZoneManifest.lookup(datasetToProcessFile.getParentFile(), dataset.getCountry());
+        if (entry.isPresent() && entry.get().getZoneVersion() != null) {
+            return entry.get().getZoneVersion();
         }
+        return ZoneVersionScanner.scan(datasetToProcessFile);
     }
 
 }
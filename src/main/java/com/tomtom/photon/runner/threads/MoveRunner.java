@@ -0,0 +1,91 @@
+package com.tomtom.photon.runner.threads;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.tomtom.photon.runner.io.DirectoryMover;
+import com.tomtom.photon.runner.metrics.Metrics;
+import com.tomtom.photon.runner.metrics.StageMetrics;
+import com.tomtom.photon.runner.pipeline.ConversionReport;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Handoff;
+import com.tomtom.photon.runner.pipeline.Stage;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.DeltaIndex;
+import com.tomtom.photon.runner.state.StateJournal;
+
+/**
+ * Moves the tifascii output of converted zones to the destination directory, which may be on another
+ * file system than the hadoop client output.
+ */
+public class MoveRunner extends Stage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MoveRunner.class);
+
+    private final Handoff input;
+    private final File source;
+    private final File dest;
+    private final DirectoryMover mover;
+    private final StateJournal journal;
+    private final Optional<DeltaIndex> delta;
+    private final ConversionReport report;
+    private final StageMetrics metrics;
+
+    /**
+     * @param source directory hadoop leaves the output of every zone in
+     * @param mover shared by all move workers
+     * @param delta countries converted by earlier runs, present in incremental runs only
+     */
+    public MoveRunner(Handoff input, File source, File dest, DirectoryMover mover, StateJournal journal,
+        Optional<DeltaIndex> delta, ConversionReport report, Metrics metrics) {
+        super(null);
+        this.input = input;
+        this.source = source;
+        this.dest = dest;
+        this.mover = mover;
+        this.journal = journal;
+        this.delta = delta;
+        this.report = report;
+        this.metrics = metrics.stage("move");
+        dest.mkdirs();
+    }
+
+    @Override
+    protected void process() throws IOException, InterruptedException {
+        Optional<Dataset> next;
+        while ((next = input.take()).isPresent()) {
+            move(next.get());
+        }
+    }
+
+    /**
+     * Zones whose output cannot be moved are recorded as FAILED, so a later run converts them again.
+     */
+    private void move(Dataset dataset) throws IOException, InterruptedException {
+        String name = dataset.getCountry();
+        File output = new File(source, name);
+        File lastDest = new File(dest, name);
+        LOGGER.info("Moving tifascii " + name);
+        long start = metrics.start();
+        try {
+            mover.move(output, lastDest);
+        } catch (IOException e) {
+            metrics.failed(start);
+            LOGGER.error("Could not move " + output + " to " + lastDest, e);
+            journal.record(dataset, DatasetState.FAILED);
+            report.notMoved(dataset, "could not move " + output + " to " + lastDest + ": " + e.getMessage());
+            return;
+        }
+        metrics.done(start);
+        LOGGER.info("Moved to " + lastDest);
+        journal.record(dataset, DatasetState.MOVED);
+        if (delta.isPresent()) {
+            delta.get().record(dataset, lastDest);
+        }
+    }
+
+}
@@ -1,202 +1,270 @@
 package com.tomtom.photon.runner.threads;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
-import java.util.concurrent.Callable;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.teleatlas.global.common.util.IOUtil;
 import com.tomtom.photon.runner.PhotonRunner;
+import com.tomtom.photon.runner.conf.ContinentRegistry;
+import com.tomtom.photon.runner.conf.ContinentSettings;
 import com.tomtom.photon.runner.conf.ZoneMakerConf;
-import com.tomtom.photon.tools.zonemaker.Params;
-import com.tomtom.photon.tools.zonemaker.ZoneMaker;
+import com.tomtom.photon.runner.io.Compression;
+import com.tomtom.photon.runner.io.VersionRewriter;
+import com.tomtom.photon.runner.io.ZoneManifest;
+import com.tomtom.photon.runner.metrics.Metrics;
+import com.tomtom.photon.runner.metrics.StageMetrics;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Handoff;
+import com.tomtom.photon.runner.pipeline.Stage;
+import com.tomtom.photon.runner.retry.CircuitBreaker;
+import com.tomtom.photon.runner.retry.RetryPolicy;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.StateJournal;
+import com.tomtom.photon.runner.zoning.ZoningClient;
 
-public class SendRunner implements Callable<Void> {
+public class SendRunner extends Stage {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SendRunner.class);
 
 	private final ZoneMakerConf zoneMakerConf;
-	private final FetchRunner fetchTask;
+	private final ContinentRegistry registry;
+	private final Handoff input;
+	private final StateJournal journal;
+	private final RetryPolicy retry;
+	private final ZoningClient client;
+	private final CircuitBreaker breaker;
+	private final StageMetrics metrics;
 
-	private final File fetchOut;
 	private final File sentOut;
+	private final File deadLetterOut;
 
-	protected boolean finished = false;
+	private final int batchSize;
+	private final long lingerMillis;
 
 	private final File staging;
+	private final VersionRewriter rewriter = new VersionRewriter();
+	private Optional<Dataset> pending = Optional.absent();
 
-	public SendRunner(ZoneMakerConf zoneMakerCnf, FetchRunner fetchTask) {
+	/**
+	 * @param worker name of this send worker, distinct across instances sharing --out; each worker stages files in
+	 *            its own tmp/send-&lt;worker&gt; directory
+	 * @param batchSize maximum number of countries of one continent sent by a single zoning call
+	 * @param lingerMillis time to wait for more countries before a batch is sent incomplete
+	 */
+	public SendRunner(ZoneMakerConf zoneMakerCnf, ContinentRegistry registry, ZoningClient client, String worker, StateJournal journal, RetryPolicy retry,
+		CircuitBreaker breaker, int batchSize, long lingerMillis, Metrics metrics, Handoff input, Handoff output) {
+		super(output);
 		zoneMakerConf = zoneMakerCnf;
-		fetchOut = new File(zoneMakerCnf.getOut(), PhotonRunner.FETCHED_DIR);
+		this.registry = registry;
 		sentOut = new File(zoneMakerCnf.getOut(), PhotonRunner.SENT_DIR);
-		staging = new File(zoneMakerCnf.getOut(), "tmp");
+		deadLetterOut = new File(zoneMakerCnf.getOut(), PhotonRunner.DEAD_LETTER_DIR);
+		staging = new File(zoneMakerCnf.getOut(), "tmp" + File.separator + "send-" + worker);
 		sentOut.mkdirs();
 		staging.mkdirs();
-		this.fetchTask = fetchTask;
+		this.input = input;
+		this.journal = journal;
+		this.retry = retry;
+		this.client = client;
+		this.breaker = breaker;
+		this.metrics = metrics.stage("send");
+		this.batchSize = batchSize;
+		this.lingerMillis = lingerMillis;
 	}
 
 	@Override
-	public Void call() throws Exception {
-		try {
-			runSend();
-			finished = true;
-		} catch (Exception e) {
-			LOGGER.error(e.getMessage(), e);
-			throw e;
+	protected void process() throws Exception {
+		List<Dataset> batch;
+		while (!(batch = nextBatch()).isEmpty()) {
+			send(batch);
 		}
-		return null;
 	}
 
-	private void runSend() throws Exception {
-		fetchOut.mkdirs();
-		while (true) {
-			Optional<File> nextFileToSend = getNextFileToSend();
-
-			if (fetchTask.finished && !nextFileToSend.isPresent()) {
+	/**
+	 * Collects up to batchSize datasets of one continent, waiting at most lingerMillis for more to arrive.
+	 * A dataset of another continent is kept for the next batch.
+	 *
+	 * @return empty once the input is drained
+	 */
+	private List<Dataset> nextBatch() throws InterruptedException {
+		List<Dataset> batch = Lists.newArrayList();
+		Optional<Dataset> next = pending.isPresent() ? pending : input.take();
+		pending = Optional.absent();
+		if (!next.isPresent()) {
+			return batch;
+		}
+		batch.add(next.get());
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		while (batch.size() < batchSize) {
+			next = input.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			if (!next.isPresent()) {
+				break;
+			}
+			if (!next.get().getContinent().equals(batch.get(0).getContinent())) {
+				pending = next;
 				break;
 			}
+			batch.add(next.get());
+		}
+		return batch;
+	}
 
-			if (nextFileToSend.isPresent()) {
-				File file = nextFileToSend.get();
-				File toBeSent = moveJsonFileFromFetchedToBeSent(file);
-				File doneMarker = new File(file.getAbsolutePath() + ".done");
-				if (!doneMarker.exists()) {
-					try {
-						String name = file.getName();
-						Params p = createParamsFile(file.getParentFile(), name);
-						LOGGER.info("Sending " + name);
-						runZoneMaker(p);
-						LOGGER.info("Sent to zoning " + name);
-						moveJsonFileFromStagingToSent(file, toBeSent);
-						nextFileToSend.get().delete();
-						doneMarker.createNewFile();
-					} catch (RuntimeException e) {
-						LOGGER.warn("Timeout on Zoning...", e);
+	/**
+	 * Sends the datasets of one continent with a single zoning call, retrying with backoff while the
+	 * zoning service fails. The datasets of a batch failing every attempt are sent one by one, so a single
+	 * dataset zoning refuses does not take the others with it. A dataset failing every attempt on its own is
+	 * moved to the dead letter directory, so it does not block the others. Datasets sent by an earlier run
+	 * are handed on unchanged.
+	 */
+	private void send(List<Dataset> datasets) throws IOException, InterruptedException {
+		List<Dataset> batch = Lists.newArrayList();
+		for (Dataset dataset : datasets) {
+			if (journal.reached(dataset, DatasetState.SENT)) {
+				emit(dataset);
+			} else {
+				batch.add(dataset);
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		ContinentSettings continent = continent(batch.get(0).getContinent());
+		String names = names(batch);
+		for (int attempt = 1; ; attempt++) {
+			clearStaging();
+			List<VersionRewriter.Result> rewritten = Lists.newArrayList();
+			for (Dataset dataset : batch) {
+				File file = dataset.getFile();
+				rewritten.add(rewriter.rewrite(file, staged(file), continentVersionPrefix(file)));
+			}
+			try {
+				LOGGER.info("Sending " + names);
+				breaker.acquire();
+				long start = metrics.start();
+				boolean sent = false;
+				try {
+					client.send(continent, staging);
+					sent = true;
+				} finally {
+					// whatever the send threw, the breaker must learn its outcome or a trial blocks it for good
+					if (sent) {
+						metrics.done(start, batch.size());
+						breaker.onSuccess();
+					} else {
+						metrics.failed(start);
+						breaker.onFailure();
 					}
 				}
-			} else {
-				TimeUnit.SECONDS.sleep(2);
+				LOGGER.info("Sent to zoning " + names);
+				for (int i = 0; i < batch.size(); i++) {
+					moved(batch.get(i), rewritten.get(i), continent);
+				}
+				return;
+			} catch (RuntimeException e) {
+				if (!retry.canRetry(attempt) && batch.size() > 1) {
+					LOGGER.warn("Giving up on sending " + names + " together after " + attempt
+						+ " attempts, sending them one by one", e);
+					for (Dataset dataset : batch) {
+						send(Collections.singletonList(dataset));
+					}
+					return;
+				}
+				if (!retry.canRetry(attempt)) {
+					LOGGER.error("Giving up on " + names + " after " + attempt + " attempts", e);
+					moveToDeadLetter(batch.get(0));
+					return;
+				}
+				long delay = retry.delayMillis(attempt);
+				LOGGER.warn("Timeout on Zoning... retrying " + names + " in " + delay + " ms", e);
+				TimeUnit.MILLISECONDS.sleep(delay);
 			}
-
 		}
-		LOGGER.info("Finished");
 	}
 
-	private void moveJsonFileFromStagingToSent(File file, File toBeSent) throws IOException {
-		File destDir = new File(sentOut, file.getParentFile().getName());
-		destDir.mkdirs();
-		File dest = new File(destDir, toBeSent.getName());
-		toBeSent.renameTo(dest);
-
-		copyPropertiesFile(file.getParentFile());
+	/**
+	 * Moves a sent country from staging to sent/&lt;continent&gt; and hands it to the hadoop stage. Countries
+	 * fetched compressed are kept compressed in sent/ as well.
+	 */
+	private void moved(Dataset dataset, VersionRewriter.Result rewritten, ContinentSettings continent)
+		throws IOException, InterruptedException {
+		File file = dataset.getFile();
+		File sent = moveJsonFileFromStagingToSent(file, staged(file), continent);
+		ZoneManifest.record(sent.getParentFile(), dataset.getCountry(), new ZoneManifest.Entry(
+			rewritten.getZoneVersion(), rewritten.getSize(), rewritten.getChecksum(), dataset.getBranchAndVersion()));
+		journal.record(dataset, DatasetState.SENT);
+		file.delete();
+		emit(dataset.toBuilder().file(sent).zoneVersion(rewritten.getZoneVersion()).size(rewritten.getSize())
+			.build());
 	}
 
-	private File moveJsonFileFromFetchedToBeSent(File nextFileToSend) throws IOException {
-		File dest = new File(staging, nextFileToSend.getName());
-		IOUtil.rmDir(staging);
-		staging.mkdirs();
-
-		BufferedReader reader = new BufferedReader(new FileReader(nextFileToSend));
-		try {
-			BufferedWriter writer = new BufferedWriter(new FileWriter(dest));
-			try {
-				String baseContent = IOUtils.toString(reader);
-				String contVersion = Integer.toString(nextFileToSend.getParentFile().getName().charAt(0) - 'A') + ".";
-				String replaced = baseContent.replace("\"version\" : \"", "\"version\" : \"" + contVersion);
-				IOUtils.write(replaced, writer);
-			} finally {
-				IOUtils.closeQuietly(writer);
+	private static String names(List<Dataset> batch) {
+		StringBuilder names = new StringBuilder();
+		for (Dataset dataset : batch) {
+			if (names.length() > 0) {
+				names.append(", ");
 			}
-		} finally {
-			IOUtils.closeQuietly(reader);
+			names.append(dataset.getFile().getName());
 		}
-		return dest;
+		return names.toString();
 	}
 
-	private Optional<File> getNextFileToSend() throws IOException {
-		for (File continentFetchOut : fetchOut.listFiles()) {
-			if (continentFetchOut.exists() && continentFetchOut.isDirectory()) {
-				Optional<File> fileToSend = getNextFileToSend(continentFetchOut);
-				if (fileToSend.isPresent()) {
-					return fileToSend;
-				}
-			}
-		}
-		return Optional.absent();
+	private void moveToDeadLetter(Dataset dataset) throws IOException {
+		File destDir = new File(deadLetterOut, dataset.getContinent());
+		destDir.mkdirs();
+		File dest = new File(destDir, dataset.getFile().getName());
+		java.nio.file.Files.move(dataset.getFile().toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		journal.record(dataset, DatasetState.DEAD_LETTER);
+		LOGGER.info("Moved to " + dest);
 	}
 
-	private void copyPropertiesFile(File continentFetchOut) throws IOException {
-		File continentSentOut = new File(sentOut, continentFetchOut.getName());
-		File properties = new File(continentFetchOut, "$_$" + continentFetchOut.getName() + ".properties");
-		File copied = new File(continentSentOut, properties.getName());
-		if (!copied.exists()) {
-			LOGGER.info("Copying to sent " + properties.getName());
-			Files.copy(properties, copied);
+	private File moveJsonFileFromStagingToSent(File file, File toBeSent, ContinentSettings continent) throws IOException {
+		File destDir = new File(sentOut, file.getParentFile().getName());
+		destDir.mkdirs();
+		File dest = new File(destDir, toBeSent.getName());
+		if (Compression.isCompressed(file)) {
+			dest = Compression.compress(toBeSent, new File(destDir, toBeSent.getName() + Compression.SUFFIX));
+		} else {
+			toBeSent.renameTo(dest);
 		}
-	}
-
-	private void runZoneMaker(Params p) {
-		ZoneMaker zm = new ZoneMaker(p);
-		zm.run();
 
+		registry.writePropertiesIfAbsent(destDir, continent);
+		return dest;
 	}
 
-	private Optional<File> getNextFileToSend(File directory) {
-		File[] files = directory.listFiles(new FilenameFilter() {
-
-			@Override
-			public boolean accept(File dir, String name) {
-				if (name.endsWith(".json") && !name.startsWith("$")) {
-					return true;
-				}
-				return false;
-			}
-		});
+	/**
+	 * @return uncompressed copy of the country in staging, the zoning service does not read compressed files
+	 */
+	private File staged(File file) {
+		return new File(staging, Compression.uncompressedName(file));
+	}
 
-		if (files.length == 0) {
-			return Optional.absent();
-		} else {
-			return Optional.of(files[0]);
-		}
+	/**
+	 * Removes anything staged before, zoning sends every file found in staging.
+	 */
+	private void clearStaging() {
+		IOUtil.rmDir(staging);
+		staging.mkdirs();
 	}
 
-	private Params createParamsFile(File continentSentDir, String name) {
-		Params p = zoneMakerConf.createBasicParams(Params.WORK_MODE.SEND);
-		Properties props = SendRunner.readPropertiesFile(continentSentDir);
-		p.setOutputDir(staging.getAbsolutePath());
-		p.setRegionName(props.getProperty("name"));
-		p.setRegionVersion(props.getProperty("version"));
-		if (ZoneMakerConf.ADM_MODE_CONTINENTS.contains(props.getProperty("name", ""))) {
-			p.setAdministrativeLevel(Params.ADMINISTRATIVE_LEVEL.ORDER1);
-		}
-		return p;
+	private static String continentVersionPrefix(File nextFileToSend) {
+		return Integer.toString(nextFileToSend.getParentFile().getName().charAt(0) - 'A') + ".";
 	}
 
-	public static Properties readPropertiesFile(File continentSentDir) {
-		final String continentName = continentSentDir.getName();
-		final Properties props = new Properties();
-		try {
-			File f = new File(continentSentDir, "$_$" + continentName + ".properties");
-			InputStream is = new FileInputStream(f);
-			props.load(is);
-		} catch (Exception e) {
-			LOGGER.error(e.getMessage(), e);
+	private ContinentSettings continent(String name) throws IOException {
+		Optional<ContinentSettings> con = registry.get(name);
+		if (!con.isPresent()) {
+			throw new IOException("No settings for continent " + name);
 		}
-		return props;
+		return con.get();
 	}
 
 }
@@ -0,0 +1,90 @@
+package com.tomtom.photon.runner.threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.StateJournal;
+
+/**
+ * Reconciles an exchange directory, laid out as &lt;root&gt;/&lt;continent&gt;/&lt;country&gt;.json, with the state
+ * journal when a run resumes. New datasets reach the stages through the handoffs, so this scan is only needed
+ * for the datasets an earlier run left behind.
+ *
+ * Countries the journal has as sent, but whose file is gone, e.g. removed by hand, are set back to FETCHED and
+ * the fetch of their continent is forgotten. Their fetched files were deleted once sent, so the continent is
+ * fetched again and they are sent again instead of being skipped for good. A continent no longer configured is
+ * not fetched, so its lost countries only come back once it is configured again.
+ */
+public class WorkDiscovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkDiscovery.class);
+
+    private final File root;
+    private final StateJournal journal;
+
+    public WorkDiscovery(File root, StateJournal journal) {
+        this.root = root;
+        this.journal = journal;
+    }
+
+    /**
+     * @return names of the continent directories, without hidden ones like incoming directories
+     */
+    public List<String> continents() {
+        List<String> continents = Lists.newArrayList();
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return continents;
+        }
+        Arrays.sort(dirs);
+        for (File dir : dirs) {
+            if (dir.isDirectory() && !dir.getName().startsWith(".")) {
+                continents.add(dir.getName());
+            }
+        }
+        return continents;
+    }
+
+    /**
+     * @return files of the countries of the continent that were sent but did not get to the destination yet
+     */
+    public List<File> resumable(String continent) throws IOException {
+        File dir = new File(root, continent);
+        Set<String> present = Sets.newHashSet();
+        List<File> resumable = Lists.newArrayList();
+        for (File file : Dataset.listCountryFiles(dir)) {
+            String key = Dataset.builder().file(file).build().getKey();
+            present.add(key);
+            if (isResumable(key)) {
+                resumable.add(file);
+            }
+        }
+        boolean lost = false;
+        for (String key : journal.countries(continent)) {
+            if (!present.contains(key) && isResumable(key)) {
+                LOGGER.warn("No file of " + key + " in " + dir + ", fetching " + continent + " again");
+                journal.record(key, DatasetState.FETCHED);
+                lost = true;
+            }
+        }
+        if (lost) {
+            journal.forget(continent);
+        }
+        return resumable;
+    }
+
+    private boolean isResumable(String key) {
+        return journal.reached(key, DatasetState.SENT) && !journal.reached(key, DatasetState.MOVED);
+    }
+
+}
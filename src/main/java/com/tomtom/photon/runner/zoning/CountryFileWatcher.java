@@ -0,0 +1,165 @@
+package com.tomtom.photon.runner.zoning;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.zoning.ZoningClient.FetchListener;
+
+/**
+ * Hands on the countries a fetch writes into a directory as they complete, while the fetch still runs.
+ *
+ * The fetch gives no signal per country, so a country counts as complete once its size and modification time
+ * stayed the same from one poll to the next and a country first seen after it exists, i.e. the fetch moved on
+ * to another country. That holds only while the fetch writes one country at a time: once two countries seen
+ * before grow within the same poll, countries are only handed on when the fetch returns. Whatever is left is
+ * handed on then.
+ */
+public class CountryFileWatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CountryFileWatcher.class);
+
+    private static class Seen {
+
+        private final File file;
+        private final int firstPoll;
+        private long size;
+        private long modified;
+        private boolean stable;
+
+        Seen(File file, int firstPoll) {
+            this.file = file;
+            this.firstPoll = firstPoll;
+            this.size = file.length();
+            this.modified = file.lastModified();
+        }
+
+        /**
+         * @return whether the file changed since the last poll
+         */
+        boolean update() {
+            long newSize = file.length();
+            long newModified = file.lastModified();
+            stable = newSize == size && newModified == modified;
+            size = newSize;
+            modified = newModified;
+            return !stable;
+        }
+    }
+
+    private static final Comparator<Seen> FIRST_SEEN = new Comparator<Seen>() {
+
+        @Override
+        public int compare(Seen a, Seen b) {
+            int order = Integer.compare(a.firstPoll, b.firstPoll);
+            return order != 0 ? order : a.file.getName().compareTo(b.file.getName());
+        }
+    };
+
+    private final File dir;
+    private final FetchListener listener;
+    private final Map<String, Seen> pending = Maps.newHashMap();
+    private final Set<String> reported = Sets.newHashSet();
+    private int polls;
+    private boolean sequential = true;
+
+    public CountryFileWatcher(File dir, FetchListener listener) {
+        this.dir = dir;
+        this.listener = listener;
+    }
+
+    /**
+     * Runs the fetch on a thread of its own, looking at the directory every poll meanwhile, and hands on the
+     * remaining countries once it returned. A failed fetch hands nothing on after the failure.
+     */
+    public void watch(String name, Runnable fetch, long pollMillis) {
+        ExecutorService fetcher = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat(name).setDaemon(true).build());
+        try {
+            Future<?> fetched = fetcher.submit(fetch);
+            while (true) {
+                try {
+                    fetched.get(pollMillis, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    poll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            fetcher.shutdownNow();
+        }
+        poll();
+        report(Lists.newArrayList(pending.values()));
+    }
+
+    /**
+     * Hands on the countries complete by now.
+     */
+    void poll() {
+        polls++;
+        int growing = 0;
+        for (File country : Dataset.listCountryFiles(dir)) {
+            String name = country.getName();
+            if (reported.contains(name)) {
+                continue;
+            }
+            Seen seen = pending.get(name);
+            if (seen == null) {
+                pending.put(name, new Seen(country, polls));
+            } else if (seen.update()) {
+                growing++;
+            }
+        }
+        if (growing > 1 && sequential) {
+            sequential = false;
+            LOGGER.warn(growing + " countries written at once to " + dir + ", handing them on once all are fetched");
+        }
+        if (!sequential) {
+            return;
+        }
+        int lastSeen = 0;
+        for (Seen seen : pending.values()) {
+            lastSeen = Math.max(lastSeen, seen.firstPoll);
+        }
+        List<Seen> complete = Lists.newArrayList();
+        for (Seen seen : pending.values()) {
+            if (seen.stable && seen.firstPoll < lastSeen) {
+                complete.add(seen);
+            }
+        }
+        report(complete);
+    }
+
+    private void report(List<Seen> countries) {
+        Collections.sort(countries, FIRST_SEEN);
+        for (Seen seen : countries) {
+            pending.remove(seen.file.getName());
+            reported.add(seen.file.getName());
+            listener.fetched(seen.file);
+        }
+    }
+
+}
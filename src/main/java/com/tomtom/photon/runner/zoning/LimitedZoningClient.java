@@ -0,0 +1,52 @@
+package com.tomtom.photon.runner.zoning;
+
+import java.io.File;
+
+import com.tomtom.photon.runner.conf.ContinentSettings;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.retry.AdaptiveLimiter;
+
+/**
+ * Holds sends back while the limiter has as many in flight as the zoning service currently copes with.
+ * Fetches go through unlimited. A send counts with its latency per country staged, so batches of any size
+ * compare alike.
+ */
+public class LimitedZoningClient implements ZoningClient {
+
+    private final ZoningClient client;
+    private final AdaptiveLimiter limiter;
+
+    public LimitedZoningClient(ZoningClient client, AdaptiveLimiter limiter) {
+        this.client = client;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void fetch(ContinentSettings con, File continentFetchOut, FetchListener listener) {
+        client.fetch(con, continentFetchOut, listener);
+    }
+
+    @Override
+    public void send(ContinentSettings continent, File staging) {
+        long start;
+        try {
+            start = limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        boolean sent = false;
+        try {
+            client.send(continent, staging);
+            sent = true;
+        } finally {
+            // whatever the send threw, the slot must be given back or the limiter loses it for good
+            if (sent) {
+                limiter.onSuccess(start, Dataset.listCountryFiles(staging).size());
+            } else {
+                limiter.onFailure(start);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.tomtom.photon.runner.zoning;
+
+import java.io.File;
+
+import com.tomtom.photon.runner.conf.ContinentSettings;
+import com.tomtom.photon.runner.conf.ZoneMakerConf;
+import com.tomtom.photon.tools.zonemaker.Params;
+import com.tomtom.photon.tools.zonemaker.ZoneMaker;
+
+/**
+ * Runs ZoneMaker in FETCH and SEND mode.
+ */
+public class ZoneMakerClient implements ZoningClient {
+
+    private static final long POLL_MILLIS = 1000;
+
+    private final ZoneMakerConf zoneMakerConf;
+
+    public ZoneMakerClient(ZoneMakerConf zoneMakerConf) {
+        this.zoneMakerConf = zoneMakerConf;
+    }
+
+    /**
+     * ZoneMaker reports nothing per country, the countries it wrote are handed on by a
+     * {@link CountryFileWatcher} looking at the directory every second.
+     */
+    @Override
+    public void fetch(ContinentSettings con, File continentFetchOut, FetchListener listener) {
+        final Params p = zoneMakerConf.createBasicParams(Params.WORK_MODE.FETCH);
+        p.setOutputDir(continentFetchOut.getAbsolutePath());
+        p.setRegionName(con.getName());
+        p.setRegionVersion(con.getVersion());
+        if (ZoneMakerConf.ADM_MODE_CONTINENTS.contains(con.getName())) {
+            p.setAdministrativeLevel(Params.ADMINISTRATIVE_LEVEL.ORDER1);
+        }
+        new CountryFileWatcher(continentFetchOut, listener).watch("zonemaker-" + con.getName(), new Runnable() {
+
+            @Override
+            public void run() {
+                new ZoneMaker(p).run();
+            }
+        }, POLL_MILLIS);
+    }
+
+    @Override
+    public void send(ContinentSettings continent, File staging) {
+        Params p = zoneMakerConf.createBasicParams(Params.WORK_MODE.SEND);
+        p.setOutputDir(staging.getAbsolutePath());
+        p.setRegionName(continent.getName());
+        p.setRegionVersion(continent.getVersion());
+        if (ZoneMakerConf.ADM_MODE_CONTINENTS.contains(continent.getName())) {
+            p.setAdministrativeLevel(Params.ADMINISTRATIVE_LEVEL.ORDER1);
+        }
+        new ZoneMaker(p).run();
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.tomtom.photon.runner.zoning;
+
+import java.io.File;
+
+import com.tomtom.photon.runner.conf.ContinentSettings;
+
+/**
+ * Access point and zoning service calls of the runner. Calls fail with a RuntimeException.
+ */
+public interface ZoningClient {
+
+    /**
+     * Reports the countries of a fetch as they complete.
+     */
+    interface FetchListener {
+
+        /**
+         * Called once per country, as soon as its json is completely written. The listener may move it away.
+         */
+        void fetched(File country);
+
+    }
+
+    /**
+     * Fetches the country jsons of the continent from the access point into the directory, reporting every
+     * country to the listener once fetched.
+     */
+    void fetch(ContinentSettings con, File continentFetchOut, FetchListener listener);
+
+    /**
+     * Sends every country json in the staging directory to the zoning service.
+     *
+     * @param continent settings of the continent the countries belong to
+     */
+    void send(ContinentSettings continent, File staging);
+
+}
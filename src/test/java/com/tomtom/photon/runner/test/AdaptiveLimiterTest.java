@@ -0,0 +1,165 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Ticker;
+import com.tomtom.photon.runner.conf.ContinentSettings;
+import com.tomtom.photon.runner.retry.AdaptiveLimiter;
+import com.tomtom.photon.runner.zoning.LimitedZoningClient;
+import com.tomtom.photon.runner.zoning.ZoningClient;
+
+
+public class AdaptiveLimiterTest extends TestCase {
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos = 0;
+
+        @Override
+        public synchronized long read() {
+            return nanos;
+        }
+
+        synchronized void advance(long time, TimeUnit unit) {
+            nanos += unit.toNanos(time);
+        }
+    }
+
+    private FakeTicker ticker;
+    private AdaptiveLimiter limiter;
+
+    @Override
+    protected void setUp() throws Exception {
+        ticker = new FakeTicker();
+        limiter = new AdaptiveLimiter("test", 1, 8, 2.0, ticker);
+    }
+
+    public void testRaisesLimitWhileLatencyHealthy() throws Exception {
+        int limit = limiter.getLimit();
+        for (int i = 0; i < 10; i++) {
+            callsTaking(limiter.getLimit(), 100);
+            assertTrue(limiter.getLimit() >= limit);
+            limit = limiter.getLimit();
+        }
+        assertTrue(limit > 2);
+        assertEquals(100.0, limiter.getBaselineLatencyMillis(), 0.001);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    public void testNeverExceedsMaximum() throws Exception {
+        warmUp();
+        assertEquals(8, limiter.getLimit());
+    }
+
+    public void testCutsLimitOnceForSlowBurst() throws Exception {
+        warmUp();
+        callsTaking(8, 500);
+        assertEquals(7, limiter.getLimit());
+        assertTrue(limiter.getLatencyMillis() > 100);
+    }
+
+    public void testJudgesLatencyPerItem() throws Exception {
+        warmUp();
+        long start = limiter.acquire();
+        ticker.advance(400, TimeUnit.MILLISECONDS);
+        limiter.onSuccess(start, 4);
+        assertEquals(8, limiter.getLimit());
+        assertEquals(100.0, limiter.getBaselineLatencyMillis(), 0.001);
+
+        start = limiter.acquire();
+        ticker.advance(400, TimeUnit.MILLISECONDS);
+        limiter.onSuccess(start, 1);
+        assertEquals(7, limiter.getLimit());
+    }
+
+    public void testHalvesLimitOnFailure() throws Exception {
+        warmUp();
+        long start = limiter.acquire();
+        limiter.onFailure(start);
+        assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 10; i++) {
+            limiter.onFailure(limiter.acquire());
+            ticker.advance(1, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    public void testIgnoresFailuresOfCallsStartedBeforeCut() throws Exception {
+        warmUp();
+        long first = limiter.acquire();
+        long second = limiter.acquire();
+        ticker.advance(100, TimeUnit.MILLISECONDS);
+        limiter.onFailure(first);
+        limiter.onFailure(second);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    public void testHoldsCallsBackAtLimit() throws Exception {
+        final long start = limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread caller = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        caller.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        ticker.advance(100, TimeUnit.MILLISECONDS);
+        limiter.onSuccess(start);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        caller.join();
+    }
+
+    public void testLimitedClientGivesSlotBackOnError() throws Exception {
+        ZoningClient failing = new ZoningClient() {
+
+            @Override
+            public void fetch(ContinentSettings con, File continentFetchOut, FetchListener listener) {
+            }
+
+            @Override
+            public void send(ContinentSettings continent, File staging) {
+                throw new AssertionError("zoning crashed");
+            }
+        };
+        try {
+            new LimitedZoningClient(failing, limiter).send(null, new File("staging"));
+            fail("Error swallowed");
+        } catch (AssertionError e) {
+            assertEquals("zoning crashed", e.getMessage());
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private void warmUp() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            callsTaking(limiter.getLimit(), 100);
+        }
+    }
+
+    /**
+     * Runs the calls side by side, all taking the same time.
+     */
+    private void callsTaking(int calls, long millis) throws InterruptedException {
+        long[] starts = new long[calls];
+        for (int i = 0; i < calls; i++) {
+            starts[i] = limiter.acquire();
+        }
+        ticker.advance(millis, TimeUnit.MILLISECONDS);
+        for (long start : starts) {
+            limiter.onSuccess(start);
+        }
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.tomtom.photon.runner.test;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -9,6 +11,9 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import com.google.common.collect.Lists;
+import com.tomtom.photon.runner.PhotonRunner;
+
 
 public class Args4JTest extends TestCase {
     
@@ -45,4 +50,34 @@ public class Args4JTest extends TestCase {
         assertEquals(Test.T1, t);
     }
 
+    public void testParsingWorkerCounts() throws CmdLineException {
+        PhotonRunner runner = new PhotonRunner();
+        new CmdLineParser(runner).parseArgument(withRequired("--fetchParallelism", "2", "-hw", "5"));
+        assertEquals(2, runner.getFetchWorkers());
+        assertEquals(5, runner.getHadoopWorkers());
+        assertEquals(1, runner.getSendWorkers());
+    }
+
+    public void testRefusingNoWorkers() {
+        for (String option : new String[] { "--fetchWorkers", "--fetchParallelism", "--sendWorkers", "-hw", "-mt" }) {
+            try {
+                new CmdLineParser(new PhotonRunner()).parseArgument(withRequired(option, "0"));
+                fail("Accepted " + option + " 0");
+            } catch (CmdLineException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("must be at least 1"));
+            }
+        }
+    }
+
+    /**
+     * @return the options followed by all options PhotonRunner requires
+     */
+    private static String[] withRequired(String... options) {
+        List<String> args = Lists.newArrayList(options);
+        args.addAll(Arrays.asList("-c", "continents.cfg", "-cc", "country_config.xml", "-ap", "http://access-point",
+            "-zs", "http://zoning", "-out", "out", "-hcd", "hadoop", "-pcj", "photon-converter.jar", "-jc",
+            "job-config.xml", "-dd", "destination"));
+        return args.toArray(new String[args.size()]);
+    }
+
 }
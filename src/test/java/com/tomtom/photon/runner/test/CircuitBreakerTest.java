@@ -0,0 +1,122 @@
+package com.tomtom.photon.runner.test;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Ticker;
+import com.tomtom.photon.runner.retry.CircuitBreaker;
+import com.tomtom.photon.runner.retry.RetryPolicy;
+
+
+public class CircuitBreakerTest extends TestCase {
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos = 0;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos += unit.toNanos(time);
+        }
+    }
+
+    private FakeTicker ticker;
+    private CircuitBreaker breaker;
+
+    @Override
+    protected void setUp() throws Exception {
+        ticker = new FakeTicker();
+        breaker = new CircuitBreaker("test", 4, 0.5, 60, TimeUnit.SECONDS, ticker);
+    }
+
+    public void testOpensWhenFailureRateReached() {
+        call(false);
+        call(false);
+        call(true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    public void testStaysClosedBelowThreshold() {
+        for (int i = 0; i < 20; i++) {
+            call(i % 4 == 0);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testSingleTrialClosesOnSuccess() {
+        open();
+        ticker.advance(60, TimeUnit.SECONDS);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    public void testTrialFailureReopens() {
+        open();
+        ticker.advance(60, TimeUnit.SECONDS);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        ticker.advance(59, TimeUnit.SECONDS);
+        assertFalse(breaker.tryAcquire());
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    public void testTrialWithoutOutcomeIsGivenUp() throws Exception {
+        open();
+        ticker.advance(60, TimeUnit.SECONDS);
+        assertTrue(breaker.tryAcquire());
+        ticker.advance(59, TimeUnit.SECONDS);
+        assertFalse(breaker.tryAcquire());
+        ticker.advance(1, TimeUnit.SECONDS);
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testRetryPolicy() {
+        RetryPolicy retry = new RetryPolicy(3, 1000, 3000);
+        assertTrue(retry.canRetry(2));
+        assertFalse(retry.canRetry(3));
+        for (int i = 0; i < 100; i++) {
+            assertBetween(500, 1000, retry.delayMillis(1));
+            assertBetween(1000, 2000, retry.delayMillis(2));
+            assertBetween(1500, 3000, retry.delayMillis(3));
+            assertBetween(1500, 3000, retry.delayMillis(100));
+        }
+    }
+
+    private void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+
+    private void open() {
+        for (int i = 0; i < 4 && breaker.getState() == CircuitBreaker.State.CLOSED; i++) {
+            call(true);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void call(boolean fail) {
+        assertTrue(breaker.tryAcquire());
+        if (fail) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+}
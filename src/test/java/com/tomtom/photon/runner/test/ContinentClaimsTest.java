@@ -0,0 +1,77 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.state.ContinentClaims;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.Leases;
+import com.tomtom.photon.runner.state.StateJournal;
+
+
+public class ContinentClaimsTest extends TestCase {
+
+    private File out;
+    private Leases leases;
+    private StateJournal journal;
+    private ContinentClaims claims;
+
+    @Override
+    protected void setUp() throws Exception {
+        out = Files.createTempDir();
+        leases = new Leases(new File(out, "leases"), "a", 60, TimeUnit.SECONDS);
+        journal = StateJournal.open(out, Optional.of("a"));
+        claims = new ContinentClaims(leases, journal, out, 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        claims.close();
+        journal.close();
+        IOUtil.rmDir(out);
+    }
+
+    public void testReleasesMovedContinentAsDone() throws Exception {
+        assertTrue(claims.tryClaim("EUR"));
+        emit("EUR", "AUT", "BEL");
+        claims.recording("EUR/AUT", DatasetState.MOVED);
+        claims.releaseFinished();
+        assertTrue(leases.holds("EUR"));
+
+        claims.recording("EUR/BEL", DatasetState.CARRIED);
+        claims.releaseFinished();
+        assertFalse(leases.holds("EUR"));
+        assertTrue(claims.isDone("EUR"));
+    }
+
+    public void testReleasesContinentWithFailuresAsNotDone() throws Exception {
+        assertTrue(claims.tryClaim("EUR"));
+        emit("EUR", "AUT", "BEL");
+        claims.recording("EUR/AUT", DatasetState.MOVED);
+        claims.recording("EUR/BEL", DatasetState.FAILED);
+        claims.releaseFinished();
+        assertFalse(leases.holds("EUR"));
+        assertFalse(claims.isDone("EUR"));
+
+        Leases other = new Leases(new File(out, "leases"), "b", 60, TimeUnit.SECONDS);
+        try {
+            assertTrue(other.tryClaim("EUR").isPresent());
+        } finally {
+            other.close();
+        }
+    }
+
+    private void emit(String continent, String... countries) {
+        for (String country : countries) {
+            claims.emitted(Dataset.builder().continent(continent).country(country).build());
+        }
+        claims.fetched(continent);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.PhotonRunner;
+import com.tomtom.photon.runner.conf.ContinentRegistry;
+import com.tomtom.photon.runner.conf.ContinentSettings;
+
+
+public class ContinentRegistryTest extends TestCase {
+
+    private static final String EUR = "EUR;13.10;562a90ee-fe27-40ef-ad1a-01463bf45662:1000000";
+    private static final String NAM = "NAM;13.10;56fdd738-80e5-4113-82e3-424c33b21aa6:1000000";
+
+    private File out;
+    private File continentsFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        out = Files.createTempDir();
+        continentsFile = new File(out, "continents.cfg");
+        Files.write(EUR + "\n", continentsFile, Charsets.UTF_8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtil.rmDir(out);
+    }
+
+    public void testContinentsFile() throws Exception {
+        ContinentRegistry registry = ContinentRegistry.load(continentsFile, out);
+        assertEquals(1, registry.getConfigured().size());
+        assertEquals("562a90ee-fe27-40ef-ad1a-01463bf45662:1000000", registry.get("EUR").get().getBranchAndVersion());
+        assertFalse(registry.get("NAM").isPresent());
+    }
+
+    public void testContinentsFileChange() throws Exception {
+        ContinentRegistry registry = ContinentRegistry.load(continentsFile, out);
+        Files.write(EUR.replace("1000000", "1000001") + "\n" + NAM + "\n", continentsFile, Charsets.UTF_8);
+        continentsFile.setLastModified(continentsFile.lastModified() + 2000);
+        assertEquals(2, registry.getConfigured().size());
+        assertEquals(1000001L, registry.get("EUR").get().getJournalVersion().longValue());
+        assertTrue(registry.get("NAM").isPresent());
+    }
+
+    public void testPropertiesOfEarlierRun() throws Exception {
+        ContinentRegistry registry = ContinentRegistry.load(continentsFile, out);
+        File sent = new File(new File(out, PhotonRunner.SENT_DIR), "NAM");
+        sent.mkdirs();
+        ContinentSettings nam = ContinentSettings.build(NAM);
+        registry.writeProperties(sent, nam);
+
+        ContinentSettings read = registry.get("NAM").get();
+        assertEquals(nam.getBranchAndVersion(), read.getBranchAndVersion());
+        assertEquals(nam.getVersion(), read.getVersion());
+        assertSame(read, registry.get("NAM").get());
+    }
+
+    public void testWritesPropertiesOncePerRun() throws Exception {
+        ContinentRegistry registry = ContinentRegistry.load(continentsFile, out);
+        ContinentSettings eur = registry.get("EUR").get();
+        File dir = new File(out, "EUR");
+        dir.mkdirs();
+        File properties = new File(dir, ContinentRegistry.propertiesFileName("EUR"));
+        registry.writeProperties(dir, eur);
+        assertEquals(eur.getBranchAndVersion(),
+            ContinentSettings.build(ContinentRegistry.readProperties(properties)).getBranchAndVersion());
+
+        assertTrue(properties.delete());
+        registry.writeProperties(dir, eur);
+        assertFalse(properties.exists());
+        registry.writeProperties(dir, ContinentSettings.build(EUR));
+        assertTrue(properties.exists());
+    }
+
+    public void testSentPropertiesStayAuthoritative() throws Exception {
+        ContinentRegistry registry = ContinentRegistry.load(continentsFile, out);
+        File sent = new File(new File(out, PhotonRunner.SENT_DIR), "EUR");
+        sent.mkdirs();
+        assertFalse(registry.getSent("EUR").isPresent());
+        registry.writePropertiesIfAbsent(sent, registry.get("EUR").get());
+
+        Files.write(EUR.replace("1000000", "1000001") + "\n", continentsFile, Charsets.UTF_8);
+        continentsFile.setLastModified(continentsFile.lastModified() + 2000);
+        ContinentSettings newer = registry.get("EUR").get();
+        assertEquals(1000001L, newer.getJournalVersion().longValue());
+        registry.writePropertiesIfAbsent(sent, newer);
+        assertEquals(1000000L, registry.getSent("EUR").get().getJournalVersion().longValue());
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.tomtom.photon.runner.pipeline.ConversionReport;
+import com.tomtom.photon.runner.pipeline.Dataset;
+
+
+public class ConversionReportTest extends TestCase {
+
+    public void testListsFailures() throws Exception {
+        ConversionReport report = new ConversionReport();
+        report.converted(dataset("AUT"), 1, 1000);
+        report.failed(dataset("BEL"), 3, "exit code 1");
+        assertEquals("1 converted, 1 failed", report.summary());
+        assertEquals(1, report.getFailures().size());
+        assertTrue(report.getFailures().get(0).startsWith("EUR/BEL attempts=3"));
+
+        File dir = Files.createTempDir();
+        File file = new File(dir, "report.txt");
+        report.write(file);
+        List<String> lines = Files.readLines(file, Charsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals("FAILED EUR/BEL attempts=3 exit code 1", lines.get(1));
+        assertEquals("CONVERTED EUR/AUT attempts=1 millis=1000", lines.get(2));
+        file.delete();
+        dir.delete();
+    }
+
+    public void testNotMovedIsFailure() {
+        ConversionReport report = new ConversionReport();
+        report.converted(dataset("AUT"), 2, 1000);
+        report.converted(dataset("BEL"), 1, 500);
+        report.notMoved(dataset("AUT"), "could not move");
+        assertEquals("1 converted, 1 failed", report.summary());
+        assertEquals("EUR/AUT attempts=2 millis=1000 could not move", report.getFailures().get(0));
+    }
+
+    private static Dataset dataset(String country) {
+        return Dataset.builder().continent("EUR").country(country).build();
+    }
+
+}
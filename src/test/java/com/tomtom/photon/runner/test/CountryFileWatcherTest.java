@@ -0,0 +1,110 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.zoning.CountryFileWatcher;
+import com.tomtom.photon.runner.zoning.ZoningClient.FetchListener;
+
+
+public class CountryFileWatcherTest extends TestCase {
+
+    private static final long POLL_MILLIS = 50;
+
+    private File dir;
+    private volatile boolean fetched;
+    private final List<String> handedOn = Lists.newArrayList();
+    private final List<String> handedOnWhileFetching = Lists.newArrayList();
+
+    private final FetchListener listener = new FetchListener() {
+
+        @Override
+        public void fetched(File country) {
+            handedOn.add(country.getName() + " " + country.length());
+            if (!fetched) {
+                handedOnWhileFetching.add(country.getName());
+            }
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtil.rmDir(dir);
+    }
+
+    public void testHandsOnCompleteCountriesWhileFetching() throws Exception {
+        new CountryFileWatcher(dir, listener).watch("fetch", new Runnable() {
+
+            @Override
+            public void run() {
+                for (String country : new String[] { "AUT", "BEL", "CHE" }) {
+                    write(country, 4);
+                    pause(5 * POLL_MILLIS);
+                }
+                fetched = true;
+            }
+        }, POLL_MILLIS);
+
+        assertEquals(Lists.newArrayList("AUT.json 4", "BEL.json 4", "CHE.json 4"), handedOn);
+        assertEquals(Lists.newArrayList("AUT.json", "BEL.json"), handedOnWhileFetching);
+    }
+
+    public void testCountriesWrittenAtOnceWaitForFetch() throws Exception {
+        new CountryFileWatcher(dir, listener).watch("fetch", new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < 8; i++) {
+                    append("AUT");
+                    append("BEL");
+                    pause(2 * POLL_MILLIS);
+                }
+                write("CHE", 1);
+                pause(5 * POLL_MILLIS);
+                fetched = true;
+            }
+        }, POLL_MILLIS);
+
+        assertEquals(Lists.newArrayList("AUT.json 8", "BEL.json 8", "CHE.json 1"), handedOn);
+        assertTrue(handedOnWhileFetching.isEmpty());
+    }
+
+    /**
+     * Appends the characters one by one, taking about a poll for each.
+     */
+    private void write(String country, int characters) {
+        for (int i = 0; i < characters; i++) {
+            append(country);
+            pause(POLL_MILLIS);
+        }
+    }
+
+    private void append(String country) {
+        try {
+            Files.append("x", new File(dir, country + ".json"), Charsets.UTF_8);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.io.DirectoryMover;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.state.DeltaIndex;
+
+
+public class DeltaIndexTest extends TestCase {
+
+    private static final String BRANCH = "562a90ee-fe27-40ef-ad1a-01463bf45662";
+
+    private File dir;
+    private File index;
+    private File fetched;
+    private DirectoryMover mover;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+        mover = new DirectoryMover(2);
+        index = new File(dir, "delta.index");
+        fetched = new File(dir, "EUR/AUT.json");
+        fetched.getParentFile().mkdirs();
+        Files.write("{\"version\" : \"13.10\"}", fetched, Charsets.UTF_8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mover.close();
+        IOUtil.rmDir(dir);
+    }
+
+    public void testCarryForwardUnchanged() throws Exception {
+        File output = convert(new File(dir, "release1"), BRANCH + ":1000");
+
+        DeltaIndex next = DeltaIndex.load(index, new File(dir, "release2"), mover);
+        assertTrue(next.carryForward(dataset(BRANCH + ":1010")));
+        assertEquals("tif", Files.toString(new File(dir, "release2/AUT/part-0"), Charsets.UTF_8));
+        assertEquals(1, new File(dir, "release2").list().length);
+        assertTrue(output.isDirectory());
+
+        DeltaIndex after = DeltaIndex.load(index, new File(dir, "release3"), mover);
+        assertTrue(after.carryForward(dataset(BRANCH + ":1020")));
+        assertTrue(new File(dir, "release3/AUT/part-0").isFile());
+    }
+
+    public void testConvertChanged() throws Exception {
+        convert(new File(dir, "release1"), BRANCH + ":1000");
+        Files.write("{\"version\" : \"13.11\"}", fetched, Charsets.UTF_8);
+
+        DeltaIndex next = DeltaIndex.load(index, new File(dir, "release2"), mover);
+        assertFalse(next.carryForward(dataset(BRANCH + ":1010")));
+        assertFalse(next.carryForward(dataset("56fdd738-80e5-4113-82e3-424c33b21aa6:1000")));
+        assertFalse(new File(dir, "release2/AUT").exists());
+    }
+
+    public void testConvertWithoutOutput() throws Exception {
+        File output = convert(new File(dir, "release1"), BRANCH + ":1000");
+        IOUtil.rmDir(output);
+
+        assertFalse(DeltaIndex.load(index, new File(dir, "release2"), mover).carryForward(dataset(BRANCH + ":1010")));
+    }
+
+    private File convert(File destination, String branchAndVersion) throws Exception {
+        File output = new File(destination, "AUT");
+        output.mkdirs();
+        Files.write("tif", new File(output, "part-0"), Charsets.UTF_8);
+        DeltaIndex.load(index, destination, mover).record(dataset(branchAndVersion), output);
+        return output;
+    }
+
+    private Dataset dataset(String branchAndVersion) throws Exception {
+        return Dataset.builder().file(fetched).branchAndVersion(branchAndVersion).contentHash(DeltaIndex.hash(fetched))
+            .build();
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.io.DirectoryMover;
+
+
+public class DirectoryMoverTest extends TestCase {
+
+    private File dir;
+    private File source;
+    private DirectoryMover mover;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+        source = new File(dir, "output/AUT");
+        new File(source, "tiles").mkdirs();
+        Files.write("part 0", new File(source, "part-0"), Charsets.UTF_8);
+        Files.write("tile 1", new File(source, "tiles/1.asc"), Charsets.UTF_8);
+        mover = new DirectoryMover(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mover.close();
+        IOUtil.rmDir(dir);
+    }
+
+    public void testMoveReplacesTarget() throws Exception {
+        File target = new File(dir, "dest/AUT");
+        target.mkdirs();
+        Files.write("stale", new File(target, "part-9"), Charsets.UTF_8);
+
+        mover.move(source, target);
+        assertFalse(source.exists());
+        assertFalse(new File(target, "part-9").exists());
+        assertEquals("tile 1", Files.toString(new File(target, "tiles/1.asc"), Charsets.UTF_8));
+    }
+
+    public void testCopy() throws Exception {
+        File target = new File(dir, "dest/AUT");
+        target.getParentFile().mkdirs();
+
+        mover.copy(source, target);
+        assertTrue(source.isDirectory());
+        assertEquals("part 0", Files.toString(new File(target, "part-0"), Charsets.UTF_8));
+        assertEquals("tile 1", Files.toString(new File(target, "tiles/1.asc"), Charsets.UTF_8));
+        assertEquals(1, target.getParentFile().list().length);
+    }
+
+    public void testFailedCopyKeepsTarget() throws Exception {
+        File target = new File(dir, "dest/AUT");
+        target.mkdirs();
+        Files.write("stale", new File(target, "part-9"), Charsets.UTF_8);
+        java.nio.file.Files.createSymbolicLink(new File(source, "part-1").toPath(), new File(dir, "gone").toPath());
+
+        try {
+            mover.copy(source, target);
+            fail("Copied a dangling link");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("stale", Files.toString(new File(target, "part-9"), Charsets.UTF_8));
+        assertFalse(new File(target, "part-0").exists());
+        assertEquals(1, target.getParentFile().list().length);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.conf.HadoopConf;
+import com.tomtom.photon.runner.conversion.ForkedConversion;
+
+
+public class ForkedConversionTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtil.rmDir(dir);
+    }
+
+    public void testExitCode() throws Exception {
+        ForkedConversion executor = new ForkedConversion(hadoop("echo converting; exit 3"));
+        try {
+            File log = new File(dir, "EUR/AUT.log");
+            assertEquals(3, executor.submit("branch:1", Arrays.asList("AUT"), "2.13.10", log).get().intValue());
+            assertTrue(Files.toString(log, Charsets.UTF_8).contains("converting"));
+        } finally {
+            executor.close();
+        }
+    }
+
+    public void testCloseKillsClient() throws Exception {
+        ForkedConversion executor = new ForkedConversion(hadoop("exec sleep 30"));
+        Future<Integer> job = executor.submit("branch:1", Arrays.asList("AUT"), "2.13.10", new File(dir, "AUT.log"));
+        Thread.sleep(500);
+        long start = System.currentTimeMillis();
+        executor.close();
+        try {
+            job.get(10, TimeUnit.SECONDS);
+            fail("Interrupted job completed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    /**
+     * Runs the script instead of the hadoop client, the hadoop arguments become its positional parameters. Like
+     * the hadoop script it has to exec its last command to be killed with it.
+     */
+    private HadoopConf hadoop(String script) {
+        return HadoopConf.valueOf(Arrays.asList("sh", "-c", script), dir.getPath(), "job-config.xml", "photon.jar",
+            dir.getPath());
+    }
+
+}
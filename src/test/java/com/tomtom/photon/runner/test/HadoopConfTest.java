@@ -0,0 +1,30 @@
+package com.tomtom.photon.runner.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.tomtom.photon.runner.conf.HadoopConf;
+
+
+public class HadoopConfTest extends TestCase {
+
+    private final HadoopConf conf =
+        HadoopConf.valueOf(HadoopConf.HADOOP, "hadoop-conf", "job-config.xml", "photon.jar", "tifascii");
+
+    public void testSingleZone() {
+        List<String> command = conf.createPhotonCommand("branch:1", "LIE", "2.13.10");
+        assertEquals("hadoop", command.get(0));
+        assertEquals("LIE", command.get(command.indexOf("--zone") + 1));
+        assertEquals("2.13.10", command.get(command.indexOf("--version") + 1));
+        assertEquals("branch:1", command.get(command.indexOf("--branchAndVersion") + 1));
+    }
+
+    public void testBatchOfZones() {
+        List<String> command = conf.createPhotonCommand("branch:1", Arrays.asList("LIE", "AND", "SMR"), "2.13.10");
+        assertEquals("LIE,AND,SMR", command.get(command.indexOf("--zone") + 1));
+        assertEquals(conf.createPhotonCommand("branch:1", "LIE", "2.13.10").size(), command.size());
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.tomtom.photon.runner.test;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Handoff;
+
+
+public class HandoffTest extends TestCase {
+
+    public void testTakeDrainsBeforeEnd() throws Exception {
+        Handoff handoff = new Handoff("test", 4, 1);
+        handoff.put(dataset("AUT"));
+        handoff.producerDone();
+        assertEquals("AUT", handoff.take().get().getCountry());
+        assertFalse(handoff.take().isPresent());
+    }
+
+    public void testPollTimesOut() throws Exception {
+        Handoff handoff = new Handoff("test", 4, 1);
+        long start = System.nanoTime();
+        assertFalse(handoff.poll(50, TimeUnit.MILLISECONDS).isPresent());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        handoff.put(dataset("BEL"));
+        assertEquals("BEL", handoff.poll(0, TimeUnit.MILLISECONDS).get().getCountry());
+    }
+
+    public void testPollReturnsAtEnd() throws Exception {
+        Handoff handoff = new Handoff("test", 4, 1);
+        handoff.producerDone();
+        long start = System.nanoTime();
+        assertFalse(handoff.poll(1, TimeUnit.MINUTES).isPresent());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    private static Dataset dataset(String country) {
+        return Dataset.builder().continent("EUR").country(country).build();
+    }
+
+}
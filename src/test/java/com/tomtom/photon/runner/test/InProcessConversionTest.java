@@ -0,0 +1,196 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.Tool;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.conf.HadoopConf;
+import com.tomtom.photon.runner.conversion.InProcessConversion;
+import com.tomtom.photon.runner.conversion.JobFactory;
+
+
+public class InProcessConversionTest extends TestCase {
+
+    private File dir;
+    private File wbmOut;
+    private HadoopConf hadoopConf;
+    private Configuration configuration;
+    private InProcessConversion executor;
+
+    /**
+     * Stands in for photon-converter: a map only job copying test.in to &lt;output path&gt;/&lt;zone&gt; for every
+     * zone but EMPTY. It cannot be created for zone ERR and takes its time for zone SLOW.
+     */
+    public static class CopyJobFactory implements JobFactory {
+
+        @Override
+        public Job createJob(Configuration configuration, String[] arguments) throws IOException {
+            List<String> args = Arrays.asList(arguments);
+            String zones = args.get(args.indexOf("--zone") + 1);
+            if ("ERR".equals(zones)) {
+                throw new IllegalStateException("Cannot convert " + zones);
+            }
+            configuration.set("test.zones", zones);
+            Job job = Job.getInstance(configuration, "convert " + zones);
+            job.setMapperClass("SLOW".equals(zones) ? SlowMapper.class : ZoneMapper.class);
+            job.setNumReduceTasks(0);
+            job.setOutputKeyClass(LongWritable.class);
+            job.setOutputValueClass(Text.class);
+            FileInputFormat.addInputPath(job, new Path(configuration.get("test.in")));
+            FileOutputFormat.setOutputPath(job, new Path(configuration.get("test.out"), zones));
+            return job;
+        }
+    }
+
+    public static class ZoneMapper extends Mapper<LongWritable, Text, LongWritable, Text> {
+
+        private MultipleOutputs<LongWritable, Text> outputs;
+
+        @Override
+        protected void setup(Context context) {
+            outputs = new MultipleOutputs<LongWritable, Text>(context);
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            for (String zone : context.getConfiguration().get("test.zones").split(",")) {
+                if (!"EMPTY".equals(zone)) {
+                    outputs.write(key, value, zone + "/part");
+                }
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+        }
+    }
+
+    public static class SlowMapper extends Mapper<LongWritable, Text, LongWritable, Text> {
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            TimeUnit.SECONDS.sleep(30);
+            context.write(key, value);
+        }
+    }
+
+    /**
+     * Stands in for a photon-converter without job factory: leaves test.wbm/&lt;zone&gt; for every zone but EMPTY.
+     */
+    public static class WbmTool extends Configured implements Tool {
+
+        @Override
+        public int run(String[] arguments) {
+            List<String> args = Arrays.asList(arguments);
+            for (String zone : args.get(args.indexOf("--zone") + 1).split(",")) {
+                if (!"EMPTY".equals(zone)) {
+                    new File(getConf().get("test.wbm"), zone).mkdirs();
+                }
+            }
+            return 0;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+        wbmOut = new File(dir, "output/wbm_rio");
+        File in = new File(dir, "in.txt");
+        Files.write("zone\n", in, Charsets.UTF_8);
+        configuration = new Configuration();
+        configuration.set("mapreduce.framework.name", "local");
+        configuration.set("fs.defaultFS", "file:///");
+        configuration.set("test.in", in.getPath());
+        configuration.set("test.out", new File(dir, "converted").getPath());
+        configuration.set("test.wbm", wbmOut.getPath());
+        hadoopConf =
+            HadoopConf.valueOf(HadoopConf.HADOOP, dir.getPath(), "job-config.xml", "photon.jar", dir.getPath());
+        executor = new InProcessConversion(hadoopConf, configuration, new CopyJobFactory(), wbmOut);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.close();
+        IOUtil.rmDir(dir);
+    }
+
+    public void testRunsJobWithLocalJobRunner() throws Exception {
+        File log = new File(dir, "logs/EUR/LIE+AND.log");
+        assertEquals(0, executor.submit("branch:1", Arrays.asList("LIE", "AND"), "2.13.10", log)
+            .get(60, TimeUnit.SECONDS).intValue());
+        assertTrue(new File(dir, "converted/LIE,AND/_SUCCESS").exists());
+        for (String zone : new String[] { "LIE", "AND" }) {
+            File output = new File(wbmOut, zone);
+            assertTrue(Files.toString(new File(output, "part-m-00000"), Charsets.UTF_8).contains("zone"));
+        }
+        assertTrue(Files.toString(log, Charsets.UTF_8).contains("exit code 0"));
+    }
+
+    public void testJobWithoutOutputFails() throws Exception {
+        File log = new File(dir, "logs/EUR/LIE+EMPTY.log");
+        assertEquals(0, executor.submit("branch:1", Arrays.asList("LIE", "EMPTY"), "2.13.10", log)
+            .get(60, TimeUnit.SECONDS).intValue());
+        assertFalse(new File(wbmOut, "EMPTY").exists());
+
+        log = new File(dir, "logs/EUR/EMPTY.log");
+        assertEquals(1, executor.submit("branch:1", Arrays.asList("EMPTY"), "2.13.10", log)
+            .get(60, TimeUnit.SECONDS).intValue());
+        assertTrue(Files.toString(log, Charsets.UTF_8).contains("no output of [EMPTY]"));
+    }
+
+    public void testRunsToolWithoutJobFactory() throws Exception {
+        InProcessConversion tool = new InProcessConversion(hadoopConf, configuration, WbmTool.class, wbmOut);
+        try {
+            assertEquals(0, tool.submit("branch:1", Arrays.asList("LIE"), "2.13.10", new File(dir, "LIE.log"))
+                .get(60, TimeUnit.SECONDS).intValue());
+            assertTrue(new File(wbmOut, "LIE").isDirectory());
+            assertEquals(1, tool.submit("branch:1", Arrays.asList("EMPTY"), "2.13.10", new File(dir, "EMPTY.log"))
+                .get(60, TimeUnit.SECONDS).intValue());
+        } finally {
+            tool.close();
+        }
+    }
+
+    public void testFailureIsExitCode() throws Exception {
+        File log = new File(dir, "logs/EUR/ERR.log");
+        assertEquals(-1, executor.submit("branch:1", Arrays.asList("ERR"), "2.13.10", log).get().intValue());
+        assertTrue(Files.toString(log, Charsets.UTF_8).contains("Cannot convert ERR"));
+    }
+
+    public void testCancelKillsJob() throws Exception {
+        File log = new File(dir, "logs/EUR/SLOW.log");
+        ListenableFuture<Integer> job = executor.submit("branch:1", Arrays.asList("SLOW"), "2.13.10", log);
+        assertTrue(job.cancel(true));
+        try {
+            job.get();
+            fail("Cancelled job completed");
+        } catch (CancellationException e) {
+            // expected
+        }
+        assertTrue(Files.toString(log, Charsets.UTF_8).contains("killed"));
+        assertFalse(new File(dir, "converted/SLOW/_SUCCESS").exists());
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.state.Leases;
+
+
+public class LeasesTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtil.rmDir(dir);
+    }
+
+    public void testRefusesLeaseHeldByOther() throws Exception {
+        Leases a = new Leases(dir, "a", 60, TimeUnit.SECONDS);
+        Leases b = new Leases(dir, "b", 60, TimeUnit.SECONDS);
+        try {
+            Optional<Leases.Lease> lease = a.tryClaim("EUR");
+            assertTrue(lease.isPresent());
+            assertEquals(1, lease.get().getGeneration());
+            assertFalse(lease.get().getPreviousOwner().isPresent());
+            assertTrue(a.holds("EUR"));
+            assertFalse(b.tryClaim("EUR").isPresent());
+            assertFalse(b.holds("EUR"));
+            assertTrue(b.tryClaim("EURO").isPresent());
+            assertEquals("a", b.get("EUR").get().getOwner());
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    public void testTakesOverExpiredLease() throws Exception {
+        // left behind by a crashed instance, which stopped renewing it
+        Files.write("owner=a\nexpires=" + (System.currentTimeMillis() - 1000) + "\ndone=false\n",
+            new File(dir, "EUR.1.lease"), Charsets.ISO_8859_1);
+        Leases b = new Leases(dir, "b", 60, TimeUnit.SECONDS);
+        try {
+            assertTrue(b.get("EUR").get().isExpired());
+            Optional<Leases.Lease> lease = b.tryClaim("EUR");
+            assertTrue(lease.isPresent());
+            assertEquals(2, lease.get().getGeneration());
+            assertEquals("a", lease.get().getPreviousOwner().get());
+            assertFalse(new File(dir, "EUR.1.lease").exists());
+            assertFalse(b.get("EUR").get().isExpired());
+        } finally {
+            b.close();
+        }
+    }
+
+    public void testLosesLeaseTakenOver() throws Exception {
+        Leases a = new Leases(dir, "a", 300, TimeUnit.MILLISECONDS);
+        Leases b = new Leases(dir, "b", 60, TimeUnit.SECONDS);
+        try {
+            a.tryClaim("EUR");
+            new File(dir, "EUR.2.lease").createNewFile();
+            Thread.sleep(500);
+            assertFalse(a.holds("EUR"));
+            assertTrue(b.tryClaim("EUR").isPresent());
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    public void testLeaseNotRenewedLapses() throws Exception {
+        Leases a = new Leases(dir, "a", 300, TimeUnit.MILLISECONDS);
+        try {
+            a.tryClaim("EUR");
+            assertTrue(a.holds("EUR"));
+            // the heartbeat cannot read the lease any more, so it neither renews it nor notices losing it
+            File lease = new File(dir, "EUR.1.lease");
+            assertTrue(lease.delete());
+            assertTrue(lease.mkdir());
+            Thread.sleep(300);
+            assertFalse(a.holds("EUR"));
+        } finally {
+            a.close();
+        }
+    }
+
+    public void testRenewsLease() throws Exception {
+        Leases a = new Leases(dir, "a", 300, TimeUnit.MILLISECONDS);
+        Leases b = new Leases(dir, "b", 60, TimeUnit.SECONDS);
+        try {
+            a.tryClaim("EUR");
+            Thread.sleep(600);
+            assertTrue(a.holds("EUR"));
+            assertFalse(b.tryClaim("EUR").isPresent());
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    public void testReleasedLease() throws Exception {
+        Leases a = new Leases(dir, "a", 60, TimeUnit.SECONDS);
+        Leases b = new Leases(dir, "b", 60, TimeUnit.SECONDS);
+        try {
+            a.tryClaim("EUR");
+            a.tryClaim("NAM");
+            a.release("EUR", true);
+            a.release("NAM", false);
+            assertFalse(a.holds("EUR"));
+            assertTrue(a.get("EUR").get().isDone());
+            assertFalse(b.tryClaim("EUR").isPresent());
+            assertTrue(b.tryClaim("NAM").isPresent());
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+}
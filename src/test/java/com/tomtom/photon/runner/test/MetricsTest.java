@@ -0,0 +1,97 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.tomtom.photon.runner.metrics.LatencyHistogram;
+import com.tomtom.photon.runner.metrics.Metrics;
+import com.tomtom.photon.runner.metrics.StageMetrics;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Handoff;
+
+
+public class MetricsTest extends TestCase {
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertWithin(500000, histogram.percentile(0.50));
+        assertWithin(950000, histogram.percentile(0.95));
+        assertWithin(990000, histogram.percentile(0.99));
+        assertWithin(1000000, histogram.percentile(1.0));
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        assertEquals(3, histogram.percentile(0.5));
+        assertEquals(7, histogram.percentile(1.0));
+    }
+
+    public void testStageCountersAndCsv() throws Exception {
+        Metrics metrics = new Metrics();
+        File dir = Files.createTempDir();
+        File csv = new File(dir, "metrics.csv");
+        try {
+            StageMetrics send = metrics.stage("send");
+            assertSame(send, metrics.stage("send"));
+            Handoff backlog = new Handoff("test", 4, 1);
+            backlog.put(Dataset.builder().continent("EUR").country("AUT").build());
+            send.setBacklog(backlog);
+
+            long first = send.start();
+            long second = send.start();
+            assertEquals(2, send.getInFlight());
+            send.done(first, 3);
+            send.failed(second);
+            assertEquals(0, send.getInFlight());
+            assertEquals(3, send.getCompleted());
+            assertEquals(1, send.getFailed());
+            assertEquals(1, send.getBacklog());
+            assertEquals(1, metrics.getBacklog());
+            assertTrue(send.getItemsPerMinute() > 0);
+
+            metrics.report(csv, 1, TimeUnit.HOURS);
+        } finally {
+            metrics.close();
+        }
+        List<String> lines = Files.readLines(csv, Charsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("time,stage,"));
+        assertTrue(lines.get(1).contains(",send,0,1,3,1,"));
+        csv.delete();
+        dir.delete();
+    }
+
+    public void testRateOfLastInterval() throws Exception {
+        Metrics metrics = new Metrics();
+        StageMetrics fetch = metrics.stage("fetch");
+        fetch.done(fetch.start(), 5);
+        fetch.snapshot();
+        assertTrue(fetch.getItemsPerMinute() > 0);
+        Thread.sleep(5);
+        fetch.snapshot();
+        assertEquals(0.0, fetch.getItemsPerMinute());
+        fetch.done(fetch.start(), 2);
+        assertEquals(0.0, fetch.getItemsPerMinute());
+        Thread.sleep(5);
+        fetch.snapshot();
+        assertTrue(fetch.getItemsPerMinute() > 0);
+        metrics.close();
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not close to " + expected, actual >= expected && actual <= expected * 1.125);
+    }
+
+}
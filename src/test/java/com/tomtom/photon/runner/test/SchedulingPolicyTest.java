@@ -0,0 +1,86 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.tomtom.photon.runner.pipeline.ConversionHistory;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Scheduling;
+import com.tomtom.photon.runner.pipeline.SchedulingPolicy;
+
+
+public class SchedulingPolicyTest extends TestCase {
+
+    private File dir;
+    private ConversionHistory history;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+        history = ConversionHistory.load(new File(dir, "history.properties"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    public void testFifo() {
+        SchedulingPolicy policy = Scheduling.FIFO.newPolicy(history);
+        add(policy, dataset("EUR", "AUT", 10), dataset("EUR", "BEL", 30), dataset("NAM", "USA", 20));
+        assertEquals(Lists.newArrayList("AUT", "BEL", "USA"), drain(policy));
+    }
+
+    public void testLongestFirstBySize() {
+        SchedulingPolicy policy = Scheduling.LPT.newPolicy(history);
+        add(policy, dataset("EUR", "AUT", 10), dataset("EUR", "BEL", 30), dataset("NAM", "USA", 20));
+        assertEquals(Lists.newArrayList("BEL", "USA", "AUT"), drain(policy));
+    }
+
+    public void testLongestFirstByHistory() throws IOException {
+        history.record(dataset("EUR", "AUT", 10), 5000);
+        history.record(dataset("EUR", "BEL", 30), 3000);
+        ConversionHistory reloaded = ConversionHistory.load(new File(dir, "history.properties"));
+
+        SchedulingPolicy policy = Scheduling.LPT.newPolicy(reloaded);
+        // USA has no history, it is estimated with the average of 200 ms per byte
+        add(policy, dataset("EUR", "BEL", 30), dataset("EUR", "AUT", 10), dataset("NAM", "USA", 20));
+        assertEquals(Lists.newArrayList("AUT", "USA", "BEL"), drain(policy));
+    }
+
+    public void testFairShare() {
+        SchedulingPolicy policy = Scheduling.FAIR.newPolicy(history);
+        add(policy, dataset("EUR", "AUT", 1), dataset("EUR", "BEL", 1), dataset("EUR", "CZE", 1),
+            dataset("NAM", "USA", 1), dataset("NAM", "CAN", 1), dataset("SAM", "BRA", 1));
+        assertEquals(Lists.newArrayList("AUT", "USA", "BRA", "BEL", "CAN", "CZE"), drain(policy));
+    }
+
+    private static Dataset dataset(String continent, String country, long size) {
+        return Dataset.builder().file(new File(continent, country + ".json")).size(size).build();
+    }
+
+    private static void add(SchedulingPolicy policy, Dataset... datasets) {
+        for (Dataset dataset : datasets) {
+            policy.add(dataset);
+        }
+    }
+
+    private static List<String> drain(SchedulingPolicy policy) {
+        List<String> countries = Lists.newArrayList();
+        Dataset dataset;
+        while ((dataset = policy.poll()) != null) {
+            countries.add(dataset.getCountry());
+        }
+        assertEquals(0, policy.size());
+        return countries;
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.io.SharedProperties;
+
+
+public class SharedPropertiesTest extends TestCase {
+
+    private static final int UPDATES = 50;
+
+    private File dir;
+
+    /**
+     * Stands in for a runner instance: updates the file once per key, each time with that key only.
+     */
+    public static class Updater {
+
+        public static void main(String[] args) throws Exception {
+            for (int i = 0; i < UPDATES; i++) {
+                Properties update = new Properties();
+                update.setProperty(args[1] + "." + i, Integer.toString(i));
+                SharedProperties.update(new File(args[0]), update, "Test");
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtil.rmDir(dir);
+    }
+
+    public void testUpdatesOfProcessesAreKept() throws Exception {
+        File file = new File(dir, "index.properties");
+        List<Process> processes = Lists.newArrayList();
+        for (String instance : new String[] { "a", "b", "c" }) {
+            ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), Updater.class.getName(), file.getPath(), instance);
+            processes.add(builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start());
+        }
+        for (Process process : processes) {
+            assertEquals(0, process.waitFor());
+        }
+        assertEquals(3 * UPDATES, SharedProperties.read(file).size());
+    }
+
+    public void testReadsMissingFileAsEmpty() throws Exception {
+        assertTrue(SharedProperties.read(new File(dir, "missing.properties")).isEmpty());
+    }
+
+}
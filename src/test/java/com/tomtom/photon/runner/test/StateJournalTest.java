@@ -0,0 +1,155 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.PhotonRunner;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.StateJournal;
+
+
+public class StateJournalTest extends TestCase {
+
+    private File out;
+
+    @Override
+    protected void setUp() throws Exception {
+        out = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtil.rmDir(out);
+    }
+
+    public void testReplay() throws IOException {
+        StateJournal journal = StateJournal.open(out);
+        journal.record("EUR", DatasetState.FETCHED);
+        journal.record("EUR/AUT", DatasetState.SENT);
+        journal.record("EUR/AUT", DatasetState.CONVERTED);
+        journal.record("EUR/BEL", DatasetState.SENT);
+        journal.close();
+
+        StateJournal reopened = StateJournal.open(out);
+        try {
+            assertEquals(DatasetState.FETCHED, reopened.get("EUR").get());
+            assertEquals(DatasetState.CONVERTED, reopened.get("EUR/AUT").get());
+            assertTrue(reopened.reached("EUR/BEL", DatasetState.SENT));
+            assertFalse(reopened.reached("EUR/BEL", DatasetState.CONVERTED));
+            assertFalse(reopened.get("NAM").isPresent());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void testForgottenStaysForgotten() throws IOException {
+        StateJournal journal = StateJournal.open(out);
+        journal.record("EUR", DatasetState.FETCHED);
+        journal.record("EUR/AUT", DatasetState.SENT);
+        journal.forget("EUR");
+        assertFalse(journal.get("EUR").isPresent());
+        journal.close();
+
+        StateJournal reopened = StateJournal.open(out);
+        try {
+            assertFalse(reopened.get("EUR").isPresent());
+            assertEquals(DatasetState.SENT, reopened.get("EUR/AUT").get());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void testConcurrentRecords() throws Exception {
+        final StateJournal journal = StateJournal.open(out);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20; i++) {
+                            journal.record("C" + thread + "/" + i, DatasetState.SENT);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+
+        StateJournal reopened = StateJournal.open(out);
+        try {
+            for (int t = 0; t < threads.length; t++) {
+                for (int i = 0; i < 20; i++) {
+                    assertTrue(reopened.reached("C" + t + "/" + i, DatasetState.SENT));
+                }
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void testMigratesDoneMarkers() throws IOException {
+        File fetched = new File(out, PhotonRunner.FETCHED_DIR + File.separator + "EUR");
+        File sent = new File(out, PhotonRunner.SENT_DIR + File.separator + "EUR");
+        fetched.mkdirs();
+        sent.mkdirs();
+        new File(fetched, "EUR.done").createNewFile();
+        new File(fetched, "AUT.json.done").createNewFile();
+        new File(fetched, "BEL.json.done").createNewFile();
+        new File(fetched, "CZE.json").createNewFile();
+        new File(sent, "AUT.json.done").createNewFile();
+
+        StateJournal journal = StateJournal.open(out);
+        try {
+            assertEquals(DatasetState.FETCHED, journal.get("EUR").get());
+            assertEquals(DatasetState.MOVED, journal.get("EUR/AUT").get());
+            assertEquals(DatasetState.SENT, journal.get("EUR/BEL").get());
+            assertFalse(journal.get("EUR/CZE").isPresent());
+        } finally {
+            journal.close();
+        }
+    }
+
+    public void testAdoptsStatesOfContinent() throws IOException {
+        StateJournal previous = StateJournal.open(out, Optional.of("a"));
+        previous.record("EUR", DatasetState.FETCHED);
+        previous.record("EUR/AUT", DatasetState.SENT);
+        previous.record("EUROPA/AUT", DatasetState.SENT);
+        previous.record("NAM/USA", DatasetState.SENT);
+        previous.close();
+
+        StateJournal journal = StateJournal.open(out, Optional.of("b"));
+        try {
+            journal.record("EUR/AUT", DatasetState.SENT);
+            assertEquals(1, journal.adopt(StateJournal.file(out, Optional.of("a")), "EUR"));
+            assertEquals(DatasetState.FETCHED, journal.get("EUR").get());
+            assertEquals(DatasetState.SENT, journal.get("EUR/AUT").get());
+            assertFalse(journal.get("EUROPA/AUT").isPresent());
+            assertFalse(journal.get("NAM/USA").isPresent());
+            assertEquals(0, journal.adopt(StateJournal.file(out, Optional.of("c")), "EUR"));
+        } finally {
+            journal.close();
+        }
+
+        StateJournal reopened = StateJournal.open(out, Optional.of("b"));
+        try {
+            assertEquals(DatasetState.FETCHED, reopened.get("EUR").get());
+        } finally {
+            reopened.close();
+        }
+    }
+
+}
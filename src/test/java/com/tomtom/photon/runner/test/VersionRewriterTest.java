@@ -0,0 +1,88 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.tomtom.photon.runner.io.Compression;
+import com.tomtom.photon.runner.io.VersionRewriter;
+import com.tomtom.photon.runner.io.ZoneVersionScanner;
+
+
+public class VersionRewriterTest extends TestCase {
+
+    private static final String JSON = "{\n  \"name\" : \"AUT\",\n  \"version\" : \"13.10\",\n"
+        + "  \"zones\" : [ { \"version\" : \"13.10\", \"id\" : 1 }, { \"\"version\" : \"13.10\" } ]\n}\n";
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    public void testRewritesLikeStringReplace() throws IOException {
+        String expected = JSON.replace("\"version\" : \"", "\"version\" : \"4.");
+        for (int bufferSize : new int[] { 1, 2, 3, 5, 7, 13, 64, 4096 }) {
+            assertEquals("buffer " + bufferSize, expected, rewrite(JSON, bufferSize, 3));
+        }
+    }
+
+    public void testReportsZoneVersionSizeAndChecksum() throws IOException {
+        File source = new File(dir, "AUT.json");
+        File target = new File(dir, "AUT.rewritten.json");
+        Files.write(JSON, source, Charsets.UTF_8);
+        VersionRewriter.Result result = new VersionRewriter(5).rewrite(source, target, "4.");
+
+        assertEquals("4.13.10", result.getZoneVersion());
+        assertEquals(target.length(), result.getSize());
+        assertEquals(Files.hash(target, Hashing.crc32()).padToLong(), result.getChecksum());
+        assertEquals("4.13.10", ZoneVersionScanner.scan(target));
+    }
+
+    public void testRewritesCompressed() throws IOException {
+        String expected = JSON.replace("\"version\" : \"", "\"version\" : \"4.");
+        for (int bufferSize : new int[] { 1, 2, 3, 5, 7, 13, 64, 4096 }) {
+            File source = new File(dir, "AUT.json");
+            File target = new File(dir, "AUT.rewritten.json");
+            Files.write(JSON, source, Charsets.UTF_8);
+            File compressed = Compression.compress(source, new File(dir, "AUT.json.gz"));
+            assertFalse(source.exists());
+            assertEquals("13.10", ZoneVersionScanner.scan(compressed));
+
+            VersionRewriter.Result result = new VersionRewriter(bufferSize).rewrite(compressed, target, "4.");
+            assertEquals(3, result.getRewritten());
+            assertEquals("4.13.10", result.getZoneVersion());
+            assertEquals(target.length(), result.getSize());
+            assertEquals(Files.hash(target, Hashing.crc32()).padToLong(), result.getChecksum());
+            assertEquals("buffer " + bufferSize, expected, Files.toString(target, Charsets.UTF_8));
+        }
+    }
+
+    public void testWithoutVersion() throws IOException {
+        assertEquals("{ \"version\" : 1 }", rewrite("{ \"version\" : 1 }", 4, 0));
+        assertEquals("", rewrite("", 4, 0));
+    }
+
+    private String rewrite(String content, int bufferSize, int expectedCount) throws IOException {
+        File source = new File(dir, "AUT.json");
+        File target = new File(dir, "AUT.rewritten.json");
+        Files.write(content, source, Charsets.UTF_8);
+        VersionRewriter.Result result = new VersionRewriter(bufferSize).rewrite(source, target, "4.");
+        assertEquals(expectedCount, result.getRewritten());
+        return Files.toString(target, Charsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.tomtom.photon.runner.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.teleatlas.global.common.util.IOUtil;
+import com.tomtom.photon.runner.conf.ContinentRegistry;
+import com.tomtom.photon.runner.conf.ContinentSettings;
+import com.tomtom.photon.runner.conf.ZoneMakerConf;
+import com.tomtom.photon.runner.metrics.Metrics;
+import com.tomtom.photon.runner.pipeline.Dataset;
+import com.tomtom.photon.runner.pipeline.Handoff;
+import com.tomtom.photon.runner.state.ContinentClaims;
+import com.tomtom.photon.runner.state.DatasetState;
+import com.tomtom.photon.runner.state.DeltaIndex;
+import com.tomtom.photon.runner.state.StateJournal;
+import com.tomtom.photon.runner.threads.FetchRunner;
+import com.tomtom.photon.runner.threads.WorkDiscovery;
+import com.tomtom.photon.runner.zoning.ZoningClient;
+
+
+public class WorkDiscoveryTest extends TestCase {
+
+    private File out;
+    private File sent;
+    private StateJournal journal;
+
+    @Override
+    protected void setUp() throws Exception {
+        out = Files.createTempDir();
+        sent = new File(out, "sent");
+        new File(sent, "EUR").mkdirs();
+        new File(sent, "NAM").mkdirs();
+        new File(sent, ".incoming").mkdirs();
+        journal = StateJournal.open(out);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        journal.close();
+        IOUtil.rmDir(out);
+    }
+
+    public void testContinents() {
+        assertEquals(Arrays.asList("EUR", "NAM"), new WorkDiscovery(sent, journal).continents());
+        assertTrue(new WorkDiscovery(new File(out, "none"), journal).continents().isEmpty());
+    }
+
+    public void testResumesSentCountries() throws Exception {
+        File aut = country("AUT.json");
+        File bel = country("BEL.json.gz");
+        country("CZE.json");
+        country("DNK.json");
+        country("$_$EUR.properties");
+        journal.record("EUR/AUT", DatasetState.SENT);
+        journal.record("EUR/BEL", DatasetState.FAILED);
+        journal.record("EUR/CZE", DatasetState.MOVED);
+
+        List<File> resumable = new WorkDiscovery(sent, journal).resumable("EUR");
+        assertEquals(Sets.newHashSet(aut, bel), Sets.newHashSet(resumable));
+        assertEquals(2, resumable.size());
+    }
+
+    public void testSetsBackCountriesWithoutFile() throws Exception {
+        journal.record("EUR/AUT", DatasetState.SENT);
+        journal.record("EUR/BEL", DatasetState.MOVED);
+        journal.record("EUROPA/CZE", DatasetState.SENT);
+
+        journal.record("EUR", DatasetState.FETCHED);
+
+        assertTrue(new WorkDiscovery(sent, journal).resumable("EUR").isEmpty());
+        assertEquals(DatasetState.FETCHED, journal.get("EUR/AUT").get());
+        assertEquals(DatasetState.MOVED, journal.get("EUR/BEL").get());
+        assertEquals(DatasetState.SENT, journal.get("EUROPA/CZE").get());
+        assertFalse(journal.get("EUR").isPresent());
+    }
+
+    public void testFetchesAgainAndHandsOnCountriesWithoutFile() throws Exception {
+        journal.record("EUR", DatasetState.FETCHED);
+        journal.record("EUR/AUT", DatasetState.SENT);
+        journal.record("EUR/BEL", DatasetState.MOVED);
+        IOUtil.rmDir(new File(sent, "NAM"));
+        File continentsFile = new File(out, "continents.cfg");
+        Files.write("EUR;13.10;562a90ee-fe27-40ef-ad1a-01463bf45662:1000000\n", continentsFile, Charsets.UTF_8);
+        ZoningClient client = new ZoningClient() {
+
+            @Override
+            public void fetch(ContinentSettings con, File continentFetchOut, FetchListener listener) {
+                for (String country : new String[] { "AUT.json", "BEL.json" }) {
+                    File file = new File(continentFetchOut, country);
+                    try {
+                        Files.touch(file);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    listener.fetched(file);
+                }
+            }
+
+            @Override
+            public void send(ContinentSettings continent, File staging) {
+            }
+        };
+        Handoff fetched = new Handoff("fetched", 8, 1);
+        Metrics metrics = new Metrics();
+        try {
+            new FetchRunner(ContinentRegistry.load(continentsFile, out),
+                ZoneMakerConf.valueOf(out.getPath(), null, null, null), client, 1, journal,
+                Optional.<DeltaIndex> absent(), false, Optional.<ContinentClaims> absent(), metrics, fetched).call();
+        } finally {
+            metrics.close();
+        }
+
+        List<String> handedOn = Lists.newArrayList();
+        for (Optional<Dataset> dataset = fetched.take(); dataset.isPresent(); dataset = fetched.take()) {
+            handedOn.add(dataset.get().getKey());
+        }
+        assertEquals(Arrays.asList("EUR/AUT"), handedOn);
+        assertEquals(DatasetState.FETCHED, journal.get("EUR").get());
+    }
+
+    private File country(String name) throws Exception {
+        File file = new File(new File(sent, "EUR"), name);
+        Files.touch(file);
+        return file;
+    }
+
+}